@@ -1,35 +1,177 @@
 package fi.vm.yti.common.config;
 
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.apache.http.HttpHost;
 import org.opensearch.client.RestClient;
 import org.opensearch.client.json.jackson.JacksonJsonpMapper;
 import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.sniff.OpenSearchNodesSniffer;
+import org.opensearch.client.sniff.SniffOnFailureListener;
+import org.opensearch.client.sniff.Sniffer;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.httpclient5.ApacheHttpClient5TransportBuilder;
 import org.opensearch.client.transport.rest_client.RestClientTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.net.URISyntaxException;
+import java.util.Arrays;
+
 @Configuration
-public class OpenSearchConfig {
+public class OpenSearchConfig implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenSearchConfig.class);
+
+    private static final String TRANSPORT_HTTP_CLIENT_5 = "httpclient5";
 
     private final String openSearchUrl;
 
+    @Value("${openSearch.transport:rest-client}")
+    private String transportType;
+
+    @Value("${openSearch.connectTimeout:5000}")
+    private int connectTimeout;
+
+    @Value("${openSearch.socketTimeout:60000}")
+    private int socketTimeout;
+
+    @Value("${openSearch.maxConnTotal:100}")
+    private int maxConnTotal;
+
+    @Value("${openSearch.maxConnPerRoute:50}")
+    private int maxConnPerRoute;
+
+    @Value("${openSearch.keepAlive:60000}")
+    private long keepAlive;
+
+    @Value("${openSearch.compression:false}")
+    private boolean compression;
+
+    @Value("${openSearch.sniff.enabled:false}")
+    private boolean sniffEnabled;
+
+    @Value("${openSearch.sniff.interval:300000}")
+    private int sniffInterval;
+
+    private Sniffer sniffer;
+
     @Autowired
     public OpenSearchConfig(@Value("${openSearch.url}") String openSearchUrl) {
         this.openSearchUrl = openSearchUrl;
     }
 
+    /**
+     * OpenSearch client. openSearch.url may contain several comma separated hosts,
+     * requests are distributed to them in round-robin order.
+     *
+     * @return client
+     */
     @Bean
     protected OpenSearchClient openSearchClient() {
-        var restClient = RestClient.builder(HttpHost.create(openSearchUrl))
+        var transport = TRANSPORT_HTTP_CLIENT_5.equalsIgnoreCase(transportType)
+                ? httpClient5Transport()
+                : restClientTransport();
+        return new OpenSearchClient(transport);
+    }
+
+    @Override
+    public void destroy() {
+        if (sniffer != null) {
+            sniffer.close();
+        }
+    }
+
+    private OpenSearchTransport restClientTransport() {
+        var hosts = Arrays.stream(getUrls())
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+
+        var builder = RestClient.builder(hosts)
             .setRequestConfigCallback(requestConfigBuilder ->
                 requestConfigBuilder
-                        .setConnectTimeout(5000)
-                        .setSocketTimeout(60000)
-        ).build();
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout))
+            .setHttpClientConfigCallback(httpClientBuilder ->
+                httpClientBuilder
+                        .setMaxConnTotal(maxConnTotal)
+                        .setMaxConnPerRoute(maxConnPerRoute)
+                        .setKeepAliveStrategy((response, context) -> keepAlive))
+            .setCompressionEnabled(compression);
 
-        var transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
-        return new OpenSearchClient(transport);
+        SniffOnFailureListener failureListener = null;
+        if (sniffEnabled) {
+            failureListener = new SniffOnFailureListener();
+            builder.setFailureListener(failureListener);
+        }
+
+        var restClient = builder.build();
+
+        if (failureListener != null) {
+            // default nodes sniffer would use http for the sniffed nodes
+            var nodesSniffer = new OpenSearchNodesSniffer(restClient,
+                    OpenSearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, getScheme(hosts));
+            sniffer = Sniffer.builder(restClient)
+                    .setSniffIntervalMillis(sniffInterval)
+                    .setNodesSniffer(nodesSniffer)
+                    .build();
+            failureListener.setSniffer(sniffer);
+        }
+        return new RestClientTransport(restClient, new JacksonJsonpMapper());
+    }
+
+    private OpenSearchTransport httpClient5Transport() {
+        if (sniffEnabled) {
+            LOG.warn("Node sniffing is not supported with {} transport", TRANSPORT_HTTP_CLIENT_5);
+        }
+        if (compression) {
+            LOG.warn("Request compression is not supported with {} transport", TRANSPORT_HTTP_CLIENT_5);
+        }
+
+        var hosts = Arrays.stream(getUrls())
+                .map(url -> {
+                    try {
+                        return org.apache.hc.core5.http.HttpHost.create(url);
+                    } catch (URISyntaxException e) {
+                        throw new IllegalArgumentException("Invalid OpenSearch url " + url, e);
+                    }
+                })
+                .toArray(org.apache.hc.core5.http.HttpHost[]::new);
+
+        return ApacheHttpClient5TransportBuilder.builder(hosts)
+                .setMapper(new JacksonJsonpMapper())
+                .setRequestConfigCallback(requestConfigBuilder ->
+                    requestConfigBuilder
+                            .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout))
+                            .setResponseTimeout(Timeout.ofMilliseconds(socketTimeout)))
+                .setHttpClientConfigCallback(httpClientBuilder ->
+                    httpClientBuilder
+                            .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                                    .setMaxConnTotal(maxConnTotal)
+                                    .setMaxConnPerRoute(maxConnPerRoute)
+                                    .build())
+                            .setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(keepAlive)))
+                .build();
+    }
+
+    private static OpenSearchNodesSniffer.Scheme getScheme(HttpHost[] hosts) {
+        var https = Arrays.stream(hosts).anyMatch(host -> "https".equalsIgnoreCase(host.getSchemeName()));
+        if (https && !Arrays.stream(hosts).allMatch(host -> "https".equalsIgnoreCase(host.getSchemeName()))) {
+            LOG.warn("OpenSearch urls use both http and https, using https for sniffed nodes");
+        }
+        return https ? OpenSearchNodesSniffer.Scheme.HTTPS : OpenSearchNodesSniffer.Scheme.HTTP;
+    }
+
+    private String[] getUrls() {
+        return Arrays.stream(openSearchUrl.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .toArray(String[]::new);
     }
 }
@@ -0,0 +1,426 @@
+package fi.vm.yti.common.opensearch;
+
+import fi.vm.yti.common.exception.OpenSearchExceptionWrapper;
+import fi.vm.yti.common.util.CommonUtils;
+import org.opensearch.client.ResponseException;
+import org.opensearch.client.opensearch.OpenSearchAsyncClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.IndexOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Collects bulk operations and sends them to OpenSearch asynchronously.
+ * A batch is flushed when either the operation count or the estimated payload size limit is reached.
+ * At most maxConcurrentRequests batches are in flight at the same time, after that
+ * the producer calling {@link #add(IndexBase)} blocks until a request completes.
+ * Items rejected with 429 (Too many requests) are retried with backoff, and so are whole requests failing
+ * with a transient error: a connection error, 429 or a server error (5xx). Other errors, e.g. 400 or
+ * 413 (Request entity too large), fail the batch at once, because sending the same request again cannot help.
+ * <p>
+ * Batch sizes are estimates: only some documents are serialized when added, and the rest are counted
+ * with the average size of those, see {@link #add(IndexBase)}.
+ */
+public class BulkIngester implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkIngester.class);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    // payload size of documents is measured for the first documents and then for every SIZE_SAMPLE_INTERVAL:th
+    private static final int SIZE_SAMPLE_FIRST = 16;
+    private static final int SIZE_SAMPLE_INTERVAL = 32;
+
+    private final OpenSearchAsyncClient client;
+    private final String index;
+    private final int maxOperations;
+    private final long maxEstimatedBytes;
+    private final int maxConcurrentRequests;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final Consumer<BatchStats> listener;
+
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService retryScheduler;
+    private final AtomicLong batchIds = new AtomicLong();
+
+    private final AtomicLong totalOperations = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+
+    private final AtomicLong addedDocuments = new AtomicLong();
+    private final AtomicLong sampledDocuments = new AtomicLong();
+    private final AtomicLong sampledBytes = new AtomicLong();
+
+    private List<BulkOperation> buffer = new ArrayList<>();
+    private long bufferEstimatedBytes;
+    private boolean closed;
+
+    private BulkIngester(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.maxOperations = builder.maxOperations;
+        this.maxEstimatedBytes = builder.maxEstimatedBytes;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        this.maxRetries = builder.maxRetries;
+        this.retryBackoffMillis = builder.retryBackoffMillis;
+        this.listener = builder.listener;
+        this.inFlight = new Semaphore(maxConcurrentRequests);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "bulk-ingester-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder(OpenSearchAsyncClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    /**
+     * Add document to the current batch. Blocks if the maximum number of requests are already in flight.
+     * Payload size is estimated from the average size of sampled documents, so most documents
+     * are serialized only once when the request is sent.
+     *
+     * @param doc document to index
+     */
+    public <T extends IndexBase> void add(T doc) {
+        var operation = new IndexOperation.Builder<IndexBase>()
+                .index(index)
+                .id(CommonUtils.encode(doc.getId()))
+                .document(doc)
+                .build()
+                ._toBulkOperation();
+        add(operation, estimateSize(doc));
+    }
+
+    /**
+     * Add operation to the current batch.
+     *
+     * @param operation bulk operation
+     * @param estimatedBytes estimated size of the serialized operation
+     */
+    public synchronized void add(BulkOperation operation, long estimatedBytes) {
+        if (closed) {
+            throw new IllegalStateException("Bulk ingester for index " + index + " is closed");
+        }
+        buffer.add(operation);
+        bufferEstimatedBytes += estimatedBytes;
+
+        if (buffer.size() >= maxOperations || bufferEstimatedBytes >= maxEstimatedBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Send buffered operations. Blocks until there is a free request slot.
+     */
+    public synchronized void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        var batch = new Batch(batchIds.incrementAndGet(), buffer, bufferEstimatedBytes);
+        buffer = new ArrayList<>();
+        bufferEstimatedBytes = 0;
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OpenSearchExceptionWrapper("Interrupted while waiting for bulk request", index);
+        }
+        send(batch, batch.operations);
+    }
+
+    /**
+     * Flush remaining operations and wait for all in flight requests to complete.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+        }
+        try {
+            inFlight.acquire(maxConcurrentRequests);
+            inFlight.release(maxConcurrentRequests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for bulk requests to complete in {}", index);
+        } finally {
+            retryScheduler.shutdown();
+        }
+        LOG.info("Bulk ingest to {} completed, operations: {}, failed: {}",
+                index, totalOperations.get(), totalFailed.get());
+    }
+
+    public long getTotalOperations() {
+        return totalOperations.get();
+    }
+
+    public long getTotalFailed() {
+        return totalFailed.get();
+    }
+
+    private long estimateSize(IndexBase doc) {
+        var count = addedDocuments.getAndIncrement();
+        if (count < SIZE_SAMPLE_FIRST || count % SIZE_SAMPLE_INTERVAL == 0) {
+            var size = OpenSearchUtil.getPayloadSize(doc);
+            sampledBytes.addAndGet(size);
+            sampledDocuments.incrementAndGet();
+            return size;
+        }
+        return sampledBytes.get() / Math.max(1, sampledDocuments.get());
+    }
+
+    private void send(Batch batch, List<BulkOperation> operations) {
+        CompletableFuture<BulkResponse> future;
+        try {
+            future = client.bulk(new BulkRequest.Builder().operations(operations).build());
+        } catch (IOException | RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((response, error) -> {
+            try {
+                handleResponse(batch, operations, response, error);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not handle bulk response " + batch.id + " to " + index, e);
+                batch.failed += operations.size();
+                complete(batch);
+            }
+        });
+    }
+
+    private void handleResponse(Batch batch, List<BulkOperation> operations, BulkResponse response, Throwable error) {
+        if (error != null) {
+            if (batch.retries < maxRetries && isTransient(error)) {
+                LOG.warn("Bulk request {} to {} failed, retrying: {}", batch.id, index, error.getMessage());
+                retry(batch, operations);
+            } else {
+                LOG.warn("Bulk request " + batch.id + " to " + index + " failed", error);
+                batch.failed += operations.size();
+                complete(batch);
+            }
+            return;
+        }
+
+        var items = response.items();
+        if (items.size() != operations.size()) {
+            throw new IllegalStateException("Expected " + operations.size() + " items in bulk response, got " + items.size());
+        }
+        var retryable = new ArrayList<BulkOperation>();
+        for (int i = 0; i < items.size(); i++) {
+            var item = items.get(i);
+            if (item.error() == null) {
+                continue;
+            }
+            if (item.status() == TOO_MANY_REQUESTS && batch.retries < maxRetries) {
+                retryable.add(operations.get(i));
+            } else {
+                batch.failed++;
+                LOG.warn("Error in document {}, caused by {}", item.id(), item.error().reason());
+            }
+        }
+        if (retryable.isEmpty()) {
+            complete(batch);
+        } else {
+            retry(batch, retryable);
+        }
+    }
+
+    /**
+     * @param error request failure
+     * @return true for connection errors, 429 and 5xx responses
+     */
+    static boolean isTransient(Throwable error) {
+        var ioError = false;
+        for (var cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OpenSearchException e) {
+                return isTransientStatus(e.status());
+            }
+            if (cause instanceof ResponseException e) {
+                return isTransientStatus(e.getResponse().getStatusLine().getStatusCode());
+            }
+            ioError |= cause instanceof IOException;
+        }
+        return ioError;
+    }
+
+    private static boolean isTransientStatus(int status) {
+        return status == TOO_MANY_REQUESTS || status >= 500;
+    }
+
+    private void retry(Batch batch, List<BulkOperation> operations) {
+        batch.retries++;
+        var backoff = retryBackoffMillis * (1L << (batch.retries - 1));
+        var delay = backoff + ThreadLocalRandom.current().nextLong(backoff + 1);
+        retryScheduler.schedule(() -> send(batch, operations), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void complete(Batch batch) {
+        if (batch.completed) {
+            return;
+        }
+        batch.completed = true;
+        BatchStats stats;
+        try {
+            stats = new BatchStats(batch.id,
+                    batch.operations.size(),
+                    batch.estimatedBytes,
+                    System.currentTimeMillis() - batch.startTime,
+                    batch.failed,
+                    batch.retries);
+            totalOperations.addAndGet(stats.getOperations());
+            totalFailed.addAndGet(stats.getFailedItems());
+        } finally {
+            inFlight.release();
+        }
+
+        LOG.debug("Bulk request {} to {}: operations: {}, estimated bytes: {}, took: {}ms, failed: {}, retries: {}",
+                stats.getBatchId(), index, stats.getOperations(), stats.getEstimatedBytes(),
+                stats.getTookMillis(), stats.getFailedItems(), stats.getRetries());
+        if (listener != null) {
+            try {
+                listener.accept(stats);
+            } catch (RuntimeException e) {
+                LOG.warn("Bulk ingester listener failed", e);
+            }
+        }
+    }
+
+    private static final class Batch {
+        private final long id;
+        private final List<BulkOperation> operations;
+        private final long estimatedBytes;
+        private final long startTime = System.currentTimeMillis();
+        private int failed;
+        private int retries;
+        private boolean completed;
+
+        private Batch(long id, List<BulkOperation> operations, long estimatedBytes) {
+            this.id = id;
+            this.operations = operations;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    /**
+     * Statistics of a single completed bulk request, including its retries
+     */
+    public static final class BatchStats {
+        private final long batchId;
+        private final int operations;
+        private final long estimatedBytes;
+        private final long tookMillis;
+        private final int failedItems;
+        private final int retries;
+
+        public BatchStats(long batchId, int operations, long estimatedBytes, long tookMillis, int failedItems, int retries) {
+            this.batchId = batchId;
+            this.operations = operations;
+            this.estimatedBytes = estimatedBytes;
+            this.tookMillis = tookMillis;
+            this.failedItems = failedItems;
+            this.retries = retries;
+        }
+
+        public long getBatchId() {
+            return batchId;
+        }
+
+        public int getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return estimated payload size of the request, see {@link BulkIngester#add(IndexBase)}
+         */
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public long getTookMillis() {
+            return tookMillis;
+        }
+
+        public int getFailedItems() {
+            return failedItems;
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+    }
+
+    public static final class Builder {
+        private final OpenSearchAsyncClient client;
+        private final String index;
+        private int maxOperations = 500;
+        private long maxEstimatedBytes = 5L * 1024 * 1024;
+        private int maxConcurrentRequests = 2;
+        private int maxRetries = 3;
+        private long retryBackoffMillis = 200;
+        private Consumer<BatchStats> listener;
+
+        private Builder(OpenSearchAsyncClient client, String index) {
+            this.client = client;
+            this.index = index;
+        }
+
+        public Builder maxOperations(int maxOperations) {
+            this.maxOperations = Math.max(1, maxOperations);
+            return this;
+        }
+
+        /**
+         * @param maxEstimatedBytes estimated payload size at which a batch is flushed.
+         *                          Batches may be somewhat larger, because the size is not measured for every document
+         * @return builder
+         */
+        public Builder maxEstimatedBytes(long maxEstimatedBytes) {
+            this.maxEstimatedBytes = Math.max(1, maxEstimatedBytes);
+            return this;
+        }
+
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = Math.max(0, maxRetries);
+            return this;
+        }
+
+        public Builder retryBackoffMillis(long retryBackoffMillis) {
+            this.retryBackoffMillis = Math.max(1, retryBackoffMillis);
+            return this;
+        }
+
+        public Builder listener(Consumer<BatchStats> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public BulkIngester build() {
+            return new BulkIngester(this);
+        }
+    }
+}
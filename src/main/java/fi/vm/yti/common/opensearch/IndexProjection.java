@@ -0,0 +1,25 @@
+package fi.vm.yti.common.opensearch;
+
+import static fi.vm.yti.common.Constants.DEFAULT_LANGUAGE;
+
+/**
+ * Lightweight search result containing only id, uri, status and label in one language.
+ * Use with {@link QueryFactoryUtils#projectionSource(String)} so that only these fields
+ * are returned and deserialized, e.g. for listing pages.
+ */
+public class IndexProjection extends IndexBase {
+
+    /**
+     * Get label in the given language or in the default language if the label is not available
+     *
+     * @param lang language
+     * @return label or null
+     */
+    public String getLabel(String lang) {
+        var label = getLabel();
+        if (label == null) {
+            return null;
+        }
+        return label.getOrDefault(lang, label.get(DEFAULT_LANGUAGE));
+    }
+}
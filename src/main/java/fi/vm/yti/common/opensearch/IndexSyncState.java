@@ -0,0 +1,33 @@
+package fi.vm.yti.common.opensearch;
+
+/**
+ * Document stored in the sync state index, contains the time of the latest successful index synchronization
+ */
+public class IndexSyncState {
+    private String name;
+    private String highWaterMark;
+
+    public IndexSyncState() {
+    }
+
+    public IndexSyncState(String name, String highWaterMark) {
+        this.name = name;
+        this.highWaterMark = highWaterMark;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public void setHighWaterMark(String highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+}
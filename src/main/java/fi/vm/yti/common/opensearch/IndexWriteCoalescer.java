@@ -0,0 +1,163 @@
+package fi.vm.yti.common.opensearch;
+
+import fi.vm.yti.common.exception.OpenSearchExceptionWrapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers single document writes for a short time and sends them to OpenSearch as one bulk request.
+ * Futures returned by {@link #submit(BulkOperation, Refresh)} complete after the bulk request
+ * (and the requested refresh) has completed, so callers keep read-your-writes semantics.
+ */
+public class IndexWriteCoalescer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexWriteCoalescer.class);
+
+    private final OpenSearchClient client;
+    private final long lingerMillis;
+    private final int maxOperations;
+    private final ScheduledExecutorService scheduler;
+
+    private List<PendingWrite> pending = new ArrayList<>();
+
+    private boolean closed;
+
+    public IndexWriteCoalescer(OpenSearchClient client, long lingerMillis, int maxOperations) {
+        this.client = client;
+        this.lingerMillis = lingerMillis;
+        this.maxOperations = Math.max(1, maxOperations);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "index-write-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add write operation to the next bulk request
+     *
+     * @param operation bulk operation
+     * @param refresh refresh policy required by the caller
+     * @return future completed when the operation is written
+     */
+    public CompletableFuture<Void> submit(BulkOperation operation, Refresh refresh) {
+        var write = new PendingWrite(operation, refresh);
+        synchronized (this) {
+            if (!closed) {
+                try {
+                    pending.add(write);
+                    if (pending.size() == 1) {
+                        scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+                    } else if (pending.size() >= maxOperations) {
+                        scheduler.execute(this::flush);
+                    }
+                    return write.future;
+                } catch (RejectedExecutionException e) {
+                    pending.remove(write);
+                }
+            }
+        }
+        // coalescer is closed, write on the calling thread
+        send(List.of(write));
+        return write.future;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        scheduler.execute(this::flush);
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warn("Pending index writes were not flushed in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        List<PendingWrite> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        send(batch);
+    }
+
+    private void send(List<PendingWrite> batch) {
+        try {
+            var request = new BulkRequest.Builder()
+                    .operations(batch.stream().map(w -> w.operation).toList())
+                    .refresh(strongest(batch))
+                    .build();
+            var response = client.bulk(request);
+            var items = response.items();
+            if (items.size() != batch.size()) {
+                throw new IllegalStateException("Bulk response has " + items.size()
+                        + " items for " + batch.size() + " operations");
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                var item = items.get(i);
+                var future = batch.get(i).future;
+                if (item.error() != null) {
+                    future.completeExceptionally(new OpenSearchExceptionWrapper(item.error().reason(), item.index()));
+                } else {
+                    future.complete(null);
+                }
+            }
+            LOG.debug("Coalesced {} index writes, took: {}ms", batch.size(), response.took());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Coalesced index writes failed: {}", e.getMessage());
+            batch.forEach(w -> w.future.completeExceptionally(e));
+        } finally {
+            // no caller may be left waiting, whatever happened above
+            batch.forEach(w -> w.future.completeExceptionally(
+                    new IllegalStateException("Coalesced index write did not complete")));
+        }
+    }
+
+    private static Refresh strongest(List<PendingWrite> batch) {
+        var result = Refresh.False;
+        for (var write : batch) {
+            if (write.refresh == Refresh.True) {
+                return Refresh.True;
+            } else if (write.refresh == Refresh.WaitFor) {
+                result = Refresh.WaitFor;
+            }
+        }
+        return result;
+    }
+
+    private static final class PendingWrite {
+        private final BulkOperation operation;
+        private final Refresh refresh;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingWrite(BulkOperation operation, Refresh refresh) {
+            this.operation = operation;
+            this.refresh = refresh;
+        }
+    }
+}
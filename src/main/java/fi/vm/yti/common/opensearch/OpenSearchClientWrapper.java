@@ -1,45 +1,122 @@
 package fi.vm.yti.common.opensearch;
 
-import com.google.common.collect.Iterables;
 import fi.vm.yti.common.exception.OpenSearchExceptionWrapper;
 import fi.vm.yti.common.util.CommonUtils;
+import org.opensearch.client.opensearch.OpenSearchAsyncClient;
 import org.opensearch.client.opensearch.OpenSearchClient;
 import org.opensearch.client.opensearch._types.OpenSearchException;
 import org.opensearch.client.opensearch._types.Refresh;
 import org.opensearch.client.opensearch._types.HealthStatus;
+import org.opensearch.client.opensearch._types.SortOptions;
+import org.opensearch.client.opensearch._types.SortOrder;
 import org.opensearch.client.opensearch._types.analysis.*;
 import org.opensearch.client.opensearch._types.mapping.TypeMapping;
 import org.opensearch.client.opensearch._types.query_dsl.Query;
 import org.opensearch.client.opensearch.core.*;
-import org.opensearch.client.opensearch.core.bulk.BulkOperation;
 import org.opensearch.client.opensearch.core.bulk.IndexOperation;
+import org.opensearch.client.opensearch.core.bulk.UpdateOperation;
+import org.opensearch.client.opensearch.core.search.HitsMetadata;
 import org.opensearch.client.opensearch.indices.ExistsRequest;
 import org.opensearch.client.opensearch.indices.*;
+import org.opensearch.client.opensearch.indices.update_aliases.Action;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static fi.vm.yti.common.opensearch.OpenSearchUtil.logPayload;
 
 @Service
-public class OpenSearchClientWrapper {
+public class OpenSearchClientWrapper implements DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(OpenSearchClientWrapper.class);
 
+    public static final String SYNC_STATE_INDEX = "yti_index_sync_state";
+
     @Value("${openSearch.bulkMaxSize:500}")
     private Integer bulkMaxSize;
 
+    @Value("${openSearch.bulkMaxBytes:5242880}")
+    private Long bulkMaxBytes;
+
+    @Value("${openSearch.bulkMaxConcurrentRequests:2}")
+    private Integer bulkMaxConcurrentRequests;
+
+    @Value("${openSearch.bulkMaxRetries:3}")
+    private Integer bulkMaxRetries;
+
+    @Value("${openSearch.refreshPolicy:true}")
+    private String defaultRefreshPolicy;
+
+    @Value("${openSearch.writeCoalescing.enabled:false}")
+    private boolean writeCoalescingEnabled;
+
+    @Value("${openSearch.writeCoalescing.lingerMs:5}")
+    private Long writeCoalescingLingerMillis;
+
+    @Value("${openSearch.writeCoalescing.timeoutMs:30000}")
+    private Long writeCoalescingTimeoutMillis;
+
+    @Value("${openSearch.scanPageSize:1000}")
+    private Integer scanPageSize;
+
+    @Value("${openSearch.numberOfReplicas:1}")
+    private String numberOfReplicas;
+
+    @Value("${openSearch.refreshInterval:1s}")
+    private String refreshInterval;
+
+    @Value("${openSearch.searchCache.enabled:false}")
+    private boolean searchCacheEnabled;
+
+    @Value("${openSearch.searchCache.maxSize:1000}")
+    private Long searchCacheMaxSize;
+
+    @Value("${openSearch.searchCache.ttl:60}")
+    private Long searchCacheTtl;
+
+    @Value("${openSearch.searchCache.refreshDelayMs:2000}")
+    private Long searchCacheRefreshDelayMillis;
+
+    private volatile SearchResultCache searchCache;
+
+    private final Map<String, Refresh> refreshPolicies = new ConcurrentHashMap<>();
+
+    private final Map<String, List<String>> writeIndexes = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> bulkFailures = new ConcurrentHashMap<>();
+
+    private IndexWriteCoalescer writeCoalescer;
+
     private final OpenSearchClient client;
 
+    private final OpenSearchAsyncClient asyncClient;
+
     @Autowired
     public OpenSearchClientWrapper(final OpenSearchClient client) {
         this.client = client;
+        this.asyncClient = new OpenSearchAsyncClient(client._transport());
     }
 
     /**
@@ -75,6 +152,7 @@ public class OpenSearchClientWrapper {
             boolean exists = indexExists(index);
             if (exists) {
                 logger.info("Cleaning index: {}", index);
+                invalidateSearchCache(index);
                 this.client.indices().delete(new DeleteIndexRequest.Builder()
                 .index(index).build());
             }
@@ -82,6 +160,19 @@ public class OpenSearchClientWrapper {
     }
 
     public void createIndex(String index, TypeMapping mappings) {
+        createIndex(index, mappings, false);
+    }
+
+    /**
+     * Create index with analyzers used in all indexes.
+     *
+     * @param index index name
+     * @param mappings index mappings
+     * @param bulkLoad if true, index is created without replicas and with refresh disabled.
+     *                 Settings must be restored with {@link #restoreIndexSettings(String)} after loading
+     * @return true if index was created
+     */
+    public boolean createIndex(String index, TypeMapping mappings, boolean bulkLoad) {
 
         var ngram = new Tokenizer.Builder()
                 .definition(new TokenizerDefinition.Builder()
@@ -140,10 +231,16 @@ public class OpenSearchClientWrapper {
                         .build())
                 .build();
 
+        var settings = new IndexSettings.Builder();
+        if (bulkLoad) {
+            settings.numberOfReplicas("0")
+                    .refreshInterval(t -> t.time("-1"));
+        }
+
         var request = new CreateIndexRequest.Builder()
                 .index(index)
                 .mappings(mappings)
-                .settings(new IndexSettings.Builder()
+                .settings(settings
                         .analysis(new IndexSettingsAnalysis.Builder()
                                 .normalizer("sortKeyNormalizer", sortKeyNormalizer)
                                 .charFilter("stripHtml", htmlStripFilter)
@@ -159,113 +256,437 @@ public class OpenSearchClientWrapper {
         try {
             client.indices().create(request);
             logger.info("Index {} created", index);
+            return true;
         } catch (IOException | OpenSearchException ex) {
             logger.warn("Index creation failed for " + index, ex);
+            return false;
         }
     }
 
+    /**
+     * Restore replica count and refresh interval of an index created for bulk loading
+     * and refresh it, so that all loaded documents are searchable.
+     *
+     * @param index index name
+     * @throws IOException in case there is a problem sending the request or parsing back the response
+     */
+    public void restoreIndexSettings(String index) throws IOException {
+        client.indices().putSettings(PutIndicesSettingsRequest.of(r -> r
+                .index(index)
+                .settings(s -> s
+                        .numberOfReplicas(numberOfReplicas)
+                        .refreshInterval(t -> t.time(refreshInterval)))));
+        client.indices().refresh(RefreshRequest.of(r -> r.index(index)));
+    }
+
+    /**
+     * Get indexes matching the pattern
+     *
+     * @param pattern index name or wildcard pattern
+     * @return index names, empty if no index matches
+     * @throws IOException in case there is a problem sending the request or parsing back the response
+     */
+    public Set<String> getIndexes(String pattern) throws IOException {
+        return client.indices().get(GetIndexRequest.of(r -> r
+                .index(pattern)
+                .allowNoIndices(true)
+                .ignoreUnavailable(true))).result().keySet();
+    }
+
+    /**
+     * Get indexes the alias points to
+     *
+     * @param alias alias name
+     * @return index names, empty if the alias does not exist
+     * @throws IOException in case there is a problem sending the request or parsing back the response
+     */
+    public Set<String> getAliasedIndexes(String alias) throws IOException {
+        var exists = client.indices().existsAlias(ExistsAliasRequest.of(r -> r.name(alias))).value();
+        if (!exists) {
+            return Set.of();
+        }
+        return client.indices().getAlias(GetAliasRequest.of(r -> r.name(alias))).result().keySet();
+    }
+
+    /**
+     * Point alias to the index atomically and delete indexes the alias pointed to before.
+     * If there is a concrete index with the same name as the alias (created before aliases were used),
+     * it is removed in the same atomic operation.
+     *
+     * @param alias alias name
+     * @param index new index
+     * @throws IOException in case there is a problem sending the request or parsing back the response
+     */
+    public void switchAlias(String alias, String index) throws IOException {
+        var oldIndexes = getAliasedIndexes(alias);
+        var legacyIndex = oldIndexes.isEmpty() && indexExists(alias);
+
+        var actions = new ArrayList<Action>();
+        if (legacyIndex) {
+            actions.add(Action.of(a -> a.removeIndex(r -> r.index(alias))));
+        }
+        oldIndexes.stream()
+                .filter(old -> !old.equals(index))
+                .forEach(old -> actions.add(Action.of(a -> a.remove(r -> r.index(old).alias(alias)))));
+        actions.add(Action.of(a -> a.add(r -> r.index(index).alias(alias))));
+
+        client.indices().updateAliases(UpdateAliasesRequest.of(r -> r.actions(actions)));
+        logger.info("Alias {} switched to index {}", alias, index);
+        invalidateSearchCache(alias);
+
+        var removed = oldIndexes.stream()
+                .filter(old -> !old.equals(index))
+                .toArray(String[]::new);
+        cleanIndexes(removed);
+    }
+
+    /**
+     * Redirect writes for the index (or alias) to another index, e.g. while the index is rebuilt
+     *
+     * @param index index or alias used by callers
+     * @param target index where documents are written
+     */
+    public void setWriteIndex(String index, String target) {
+        writeIndexes.put(index, List.of(target));
+    }
+
+    /**
+     * Write documents to another index in addition to the index (or alias) itself, e.g. while
+     * the index is rebuilt, so that writes during the rebuild are visible before and after the alias switch.
+     * Bulk ingesters write only to the target.
+     *
+     * @param index index or alias used by callers
+     * @param target index where documents are also written
+     */
+    public void addWriteIndex(String index, String target) {
+        writeIndexes.put(index, List.of(index, target));
+    }
+
+    public void clearWriteIndex(String index) {
+        writeIndexes.remove(index);
+    }
+
+    private List<String> writeIndexes(String index) {
+        return writeIndexes.getOrDefault(index, List.of(index));
+    }
+
+    private String writeIndex(String index) {
+        var targets = writeIndexes(index);
+        return targets.get(targets.size() - 1);
+    }
+
+    /**
+     * Set refresh policy used for single document writes to the index
+     *
+     * @param index index name
+     * @param refresh refresh policy
+     */
+    public void setRefreshPolicy(String index, Refresh refresh) {
+        refreshPolicies.put(index, refresh);
+    }
+
+    public Refresh getRefreshPolicy(String index) {
+        return refreshPolicies.getOrDefault(index, parseRefresh(defaultRefreshPolicy));
+    }
+
     public <T extends IndexBase> void putToIndex(String index, T doc) {
+        putToIndex(index, doc, getRefreshPolicy(index));
+    }
+
+    public <T extends IndexBase> void putToIndex(String index, T doc, Refresh refresh) {
         String encId = CommonUtils.encode(doc.getId());
-        try {
-            IndexRequest<T> indexReq = new IndexRequest.Builder<T>()
-                    .index(index)
-                    .refresh(Refresh.True)
-                    .id(encId)
-                    .document(doc)
-                    .build();
+        for (var target : writeIndexes(index)) {
+            try {
+                if (writeCoalescingEnabled) {
+                    var operation = new IndexOperation.Builder<IndexBase>()
+                            .index(target)
+                            .id(encId)
+                            .document(doc)
+                            .build()
+                            ._toBulkOperation();
+                    getWriteCoalescer().submit(operation, refresh)
+                            .orTimeout(writeCoalescingTimeoutMillis, TimeUnit.MILLISECONDS)
+                            .join();
+                } else {
+                    IndexRequest<T> indexReq = new IndexRequest.Builder<T>()
+                            .index(target)
+                            .refresh(refresh)
+                            .id(encId)
+                            .document(doc)
+                            .build();
 
-            logPayload(indexReq, index);
-            client.index(indexReq);
-            logger.debug("Indexed {} to {}}", doc.getId(), index);
-        } catch (IOException | OpenSearchException e) {
-            logger.warn("Could not add to index: " + doc.getId(), e);
+                    logPayload(indexReq, index);
+                    client.index(indexReq);
+                }
+                logger.debug("Indexed {} to {}}", doc.getId(), index);
+            } catch (IOException | OpenSearchException | CompletionException e) {
+                logger.warn("Could not add to index: " + doc.getId(), e);
+            }
         }
+        invalidateSearchCache(index, refresh);
     }
 
     public <T extends IndexBase> void updateToIndex(String index, T doc) {
+        updateToIndex(index, doc, getRefreshPolicy(index));
+    }
+
+    public <T extends IndexBase> void updateToIndex(String index, T doc, Refresh refresh) {
         String encId = CommonUtils.encode(doc.getId());
-        try {
-            var request = new UpdateRequest.Builder<String, T>()
-                    .index(index)
-                    .refresh(Refresh.True)
-                    .id(encId)
-                    .doc(doc)
-                    .build();
-            logPayload(request, index);
-            client.update(request, String.class);
-            logger.debug("Updated {} to {}", doc.getId(), index);
-        } catch (IOException | OpenSearchException e) {
-            logger.warn("Could not update to index: " + doc.getId(), e);
+        for (var target : writeIndexes(index)) {
+            try {
+                if (writeCoalescingEnabled) {
+                    var operation = new UpdateOperation.Builder<IndexBase>()
+                            .index(target)
+                            .id(encId)
+                            .document(doc)
+                            .build()
+                            ._toBulkOperation();
+                    getWriteCoalescer().submit(operation, refresh)
+                            .orTimeout(writeCoalescingTimeoutMillis, TimeUnit.MILLISECONDS)
+                            .join();
+                } else {
+                    var request = new UpdateRequest.Builder<String, T>()
+                            .index(target)
+                            .refresh(refresh)
+                            .id(encId)
+                            .doc(doc)
+                            .build();
+                    logPayload(request, index);
+                    client.update(request, String.class);
+                }
+                logger.debug("Updated {} to {}", doc.getId(), index);
+            } catch (IOException | OpenSearchException | CompletionException e) {
+                logger.warn("Could not update to index: " + doc.getId(), e);
+            }
+        }
+        invalidateSearchCache(index, refresh);
+    }
+
+    @Override
+    public void destroy() {
+        if (writeCoalescer != null) {
+            writeCoalescer.close();
+        }
+    }
+
+    private synchronized IndexWriteCoalescer getWriteCoalescer() {
+        if (writeCoalescer == null) {
+            writeCoalescer = new IndexWriteCoalescer(client, writeCoalescingLingerMillis, bulkMaxSize);
         }
+        return writeCoalescer;
     }
 
-        public <T extends IndexBase> void bulkInsert(String indexName,
+    private static Refresh parseRefresh(String value) {
+        if (value == null) {
+            return Refresh.True;
+        }
+        return switch (value.trim().toLowerCase()) {
+            case "false", "none" -> Refresh.False;
+            case "wait_for", "waitfor" -> Refresh.WaitFor;
+            default -> Refresh.True;
+        };
+    }
+
+    public <T extends IndexBase> void bulkInsert(String indexName,
                                                  List<T> documents) {
-        List<BulkOperation> bulkOperations = new ArrayList<>();
-        documents.forEach(doc ->
-                bulkOperations.add(new IndexOperation.Builder<IndexBase>()
-                        .index(indexName)
-                        .id(CommonUtils.encode(doc.getId()))
-                        .document(doc)
-                        .build().
-                        _toBulkOperation())
-        );
-        if (bulkOperations.isEmpty()) {
+        bulkInsert(indexName, documents.iterator());
+    }
+
+    /**
+     * Index documents from the stream. Documents are consumed and sent in batches,
+     * so memory usage depends on the batch size, not on the amount of documents.
+     *
+     * @param indexName index name
+     * @param documents stream of documents
+     */
+    public <T extends IndexBase> void bulkInsert(String indexName, Stream<T> documents) {
+        try (documents) {
+            bulkInsert(indexName, documents.iterator());
+        }
+    }
+
+    /**
+     * Index documents published by the flux. Blocks until the flux completes.
+     *
+     * @param indexName index name
+     * @param documents flux of documents
+     */
+    public <T extends IndexBase> void bulkInsert(String indexName, Flux<T> documents) {
+        bulkInsert(indexName, documents.toIterable(bulkMaxSize).iterator());
+    }
+
+    /**
+     * Index documents from the iterator in batches.
+     *
+     * @param indexName index name
+     * @param documents iterator of documents
+     */
+    public <T extends IndexBase> void bulkInsert(String indexName, Iterator<T> documents) {
+        if (!documents.hasNext()) {
             logger.info("No data to index");
             return;
         }
 
-        Iterables.partition(bulkOperations, bulkMaxSize).forEach(batch -> {
-            var bulkRequest = new BulkRequest.Builder()
-                    .operations(batch);
-            try {
-                var response = client.bulk(bulkRequest.build());
+        try (var ingester = bulkIngester(indexName)) {
+            documents.forEachRemaining(ingester::add);
+        }
+    }
 
-                if (response.errors()) {
-                    logger.warn("Errors occurred in bulk operation");
-                    response.items().stream()
-                            .filter(i -> i.error() != null)
-                            .forEach(i -> logger.warn("Error in document {}, caused by {}", i.id(), i.error().reason()));
-                }
-                logger.debug("Bulk insert status for {}: errors: {}, items: {}, took: {}ms",
-                        indexName, response.errors(), response.items().size(), response.took());
-            } catch (IOException e) {
-                logger.warn("Error in bulk operation", e);
-            }
-        });
+    /**
+     * Create bulk ingester for the index. Batch size, payload size, concurrency and retry
+     * limits are read from openSearch.bulk* properties.
+     * Ingester must be closed after use to flush remaining operations.
+     *
+     * @param indexName index name
+     * @return bulk ingester
+     */
+    public BulkIngester bulkIngester(String indexName) {
+        var target = writeIndex(indexName);
+        return BulkIngester.builder(asyncClient, target)
+                .maxOperations(bulkMaxSize)
+                .maxEstimatedBytes(bulkMaxBytes)
+                .maxConcurrentRequests(bulkMaxConcurrentRequests)
+                .maxRetries(bulkMaxRetries)
+                .listener(stats -> {
+                    if (stats.getFailedItems() > 0) {
+                        bulkFailures.computeIfAbsent(target, t -> new LongAdder()).add(stats.getFailedItems());
+                    }
+                    // bulk requests are not refreshed
+                    invalidateSearchCache(indexName, Refresh.False);
+                    logger.debug("Bulk insert status for {}: items: {}, estimated bytes: {}, failed: {}, retries: {}, took: {}ms",
+                            indexName, stats.getOperations(), stats.getEstimatedBytes(), stats.getFailedItems(),
+                            stats.getRetries(), stats.getTookMillis());
+                })
+                .build();
     }
 
-    public void removeFromIndexWithQuery(String index, Query query) {
+    /**
+     * Number of documents that could not be written to the index with bulk ingesters since
+     * the previous {@link #clearBulkFailures(String)}. Failed documents are only logged by the ingester,
+     * so this is used to detect incomplete loads.
+     *
+     * @param index concrete index name
+     * @return failed document count
+     */
+    public long getBulkFailures(String index) {
+        var failures = bulkFailures.get(index);
+        return failures != null ? failures.sum() : 0;
+    }
+
+    public void clearBulkFailures(String index) {
+        bulkFailures.remove(index);
+    }
+
+    /**
+     * Get time of the latest successful synchronization
+     *
+     * @param name name of the synchronized index set
+     * @return high water mark or null if indexes have not been synchronized
+     */
+    public Instant getHighWaterMark(String name) {
         try {
-            final long startTime = System.currentTimeMillis();
-            DeleteByQueryRequest req = new DeleteByQueryRequest.Builder()
-                    .index(index)
-                    .query(query)
-                    .refresh(true)
+            var request = new GetRequest.Builder()
+                    .index(SYNC_STATE_INDEX)
+                    .id(CommonUtils.encode(name))
                     .build();
-            var response = client.deleteByQuery(req);
-            logger.info("Removed {} items from {} (took {} ms)", response.deleted(), index, System.currentTimeMillis() - startTime);
-        } catch (IOException e) {
-            logger.warn(e.getMessage(), e);
+            var response = client.get(request, IndexSyncState.class);
+            if (!response.found() || response.source() == null) {
+                return null;
+            }
+            return Instant.parse(response.source().getHighWaterMark());
+        } catch (IOException | OpenSearchException e) {
+            logger.info("Could not read sync state for {}: {}", name, e.getMessage());
+            return null;
         }
     }
 
-    public void removeFromIndex(String index, String id) {
-        String encId = CommonUtils.encode(id);
+    public void setHighWaterMark(String name, Instant highWaterMark) {
         try {
-            final long startTime = System.currentTimeMillis();
-            DeleteRequest req = new DeleteRequest.Builder()
-                    .index(index)
-                    .id(encId)
+            var request = new IndexRequest.Builder<IndexSyncState>()
+                    .index(SYNC_STATE_INDEX)
+                    .id(CommonUtils.encode(name))
+                    .document(new IndexSyncState(name, highWaterMark.toString()))
                     .refresh(Refresh.WaitFor)
                     .build();
-            client.delete(req);
-            logger.info("Removed {} from {} (took {} ms)", id, index, System.currentTimeMillis() - startTime);
-        } catch (IOException e) {
-            logger.warn(e.getMessage(), e);
+            client.index(request);
+            logger.debug("Sync state for {} set to {}", name, highWaterMark);
+        } catch (IOException | OpenSearchException e) {
+            logger.warn("Could not store sync state for " + name, e);
         }
     }
 
+    public void removeFromIndexWithQuery(String index, Query query) {
+        for (var target : writeIndexes(index)) {
+            try {
+                final long startTime = System.currentTimeMillis();
+                DeleteByQueryRequest req = new DeleteByQueryRequest.Builder()
+                        .index(target)
+                        .query(query)
+                        .refresh(true)
+                        .build();
+                var response = client.deleteByQuery(req);
+                logger.info("Removed {} items from {} (took {} ms)", response.deleted(), index, System.currentTimeMillis() - startTime);
+            } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            } finally {
+                // documents may have been deleted even if the request failed
+                invalidateSearchCache(index);
+            }
+        }
+    }
+
+    public void removeFromIndex(String index, String id) {
+        String encId = CommonUtils.encode(id);
+        for (var target : writeIndexes(index)) {
+            try {
+                final long startTime = System.currentTimeMillis();
+                DeleteRequest req = new DeleteRequest.Builder()
+                        .index(target)
+                        .id(encId)
+                        .refresh(Refresh.WaitFor)
+                        .build();
+                client.delete(req);
+                logger.info("Removed {} from {} (took {} ms)", id, index, System.currentTimeMillis() - startTime);
+                invalidateSearchCache(index);
+            } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Stream all documents matching the query. Documents are fetched lazily in pages using
+     * point in time and search_after, so the iteration is not limited by the max result window.
+     * The stream should be closed if it is not fully consumed.
+     *
+     * @param index index name
+     * @param query query
+     * @param type document type
+     * @return stream of documents sorted by id
+     */
+    public <T extends IndexBase> Stream<T> searchAll(String index, Query query, Class<T> type) {
+        return searchAll(index, query, List.of(), type);
+    }
+
+    /**
+     * Stream all documents matching the query sorted by the given sort options.
+     * Document id is always used as the last sort key to make the ordering unique.
+     *
+     * @param index index name
+     * @param query query
+     * @param sort sort options
+     * @param type document type
+     * @return stream of documents
+     */
+    public <T extends IndexBase> Stream<T> searchAll(String index, Query query, List<SortOptions> sort, Class<T> type) {
+        var sortWithTieBreaker = new ArrayList<>(sort);
+        sortWithTieBreaker.add(SortOptions.of(s -> s.field(f -> f.field("id").order(SortOrder.Asc))));
+
+        var iterator = new PointInTimeIterator<>(client, index, query, sortWithTieBreaker, scanPageSize, type);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
     public <T extends IndexBase> SearchResponse<T> searchResponse(SearchRequest request, Class<T> type) {
         try {
             return client.search(request, type);
@@ -275,27 +696,168 @@ public class OpenSearchClientWrapper {
         }
     }
 
+    /**
+     * Search documents. Results are cached if openSearch.searchCache.enabled is set, see {@link SearchResultCache}.
+     *
+     * @param request search request
+     * @param type document type
+     * @return search response
+     */
     public <T extends IndexBase> SearchResponseDTO<T> search(SearchRequest request, Class<T> type) {
-        var response = new SearchResponseDTO<T>();
-        
+        if (!searchCacheEnabled) {
+            return doSearch(request, type);
+        }
+        var cache = getSearchCache();
+        var key = cache.key(request, type);
+        if (key == null) {
+            return doSearch(request, type);
+        }
+        SearchResponseDTO<T> cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        var response = doSearch(request, type);
+        cache.put(key, response);
+        return response;
+    }
+
+    /**
+     * Invalidate cached search results of the index. Called automatically after writes through this client.
+     *
+     * @param index index name
+     */
+    public void invalidateSearchCache(String index) {
+        invalidateSearchCache(index, Refresh.True);
+    }
+
+    private void invalidateSearchCache(String index, Refresh refresh) {
+        if (searchCache != null) {
+            searchCache.invalidate(index, refresh != Refresh.False);
+        }
+    }
+
+    private synchronized SearchResultCache getSearchCache() {
+        if (searchCache == null) {
+            searchCache = new SearchResultCache(searchCacheMaxSize, searchCacheTtl, searchCacheRefreshDelayMillis);
+        }
+        return searchCache;
+    }
+
+    private <T extends IndexBase> SearchResponseDTO<T> doSearch(SearchRequest request, Class<T> type) {
         try {
             var result = client.search(request, type);
-            response.setTotalHitCount(result.hits().total().value());
-            var sources = result.hits().hits().stream()
-                    .filter(hit -> hit.source() != null)
-                    .map(hit -> {
-                        var base = hit.source();
-                        base.setHighlights(hit.highlight());
-                        return base;
-                    })
-                    .toList();
-            response.setResponseObjects(sources);
-            response.setPageFrom(request.from());
-            response.setPageSize(request.size());
-            return response;
+            return toSearchResponseDTO(request, result.hits());
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
             throw new OpenSearchExceptionWrapper(e.getMessage(), String.join(", ", request.index()));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Search without blocking the calling thread
+     *
+     * @param request search request
+     * @param type document type
+     * @return future completed with the search response
+     */
+    public <T extends IndexBase> CompletableFuture<SearchResponse<T>> searchResponseAsync(SearchRequest request, Class<T> type) {
+        try {
+            return asyncClient.search(request, type);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return CompletableFuture.failedFuture(
+                    new OpenSearchExceptionWrapper(e.getMessage(), String.join(", ", request.index())));
+        }
+    }
+
+    /**
+     * Search without blocking the calling thread. Results are not cached, even if the search cache is enabled.
+     *
+     * @param request search request
+     * @param type document type
+     * @return future completed with the search response
+     */
+    public <T extends IndexBase> CompletableFuture<SearchResponseDTO<T>> searchAsync(SearchRequest request, Class<T> type) {
+        return searchResponseAsync(request, type)
+                .thenApply(result -> toSearchResponseDTO(request, result.hits()));
+    }
+
+    /**
+     * Send several search requests in one _msearch request. Results are not cached,
+     * even if the search cache is enabled.
+     *
+     * @param requests search requests
+     * @param type document type
+     * @return responses in the same order as the requests
+     * @throws IllegalArgumentException if a request contains fields not supported in a multi search
+     */
+    public <T extends IndexBase> List<SearchResponseDTO<T>> multiSearch(List<SearchRequest> requests, Class<T> type) {
+        try {
+            return multiSearchAsync(requests, type).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof OpenSearchExceptionWrapper wrapper) {
+                throw wrapper;
+            }
+            logger.error(e.getMessage(), e);
+            throw new OpenSearchExceptionWrapper(e.getMessage(), indexNames(requests));
+        }
+    }
+
+    public <T extends IndexBase> CompletableFuture<List<SearchResponseDTO<T>>> multiSearchAsync(List<SearchRequest> requests,
+                                                                                               Class<T> type) {
+        if (requests.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        var msearch = new MsearchRequest.Builder();
+        requests.forEach(request -> {
+            var header = OpenSearchUtil.toMultisearchHeader(request);
+            var body = OpenSearchUtil.toMultisearchBody(request);
+            msearch.searches(item -> item
+                    .header(header)
+                    .body(body));
+        });
+        try {
+            return asyncClient.msearch(msearch.build(), type).thenApply(response -> {
+                var results = new ArrayList<SearchResponseDTO<T>>();
+                var items = response.responses();
+                for (int i = 0; i < items.size(); i++) {
+                    var item = items.get(i);
+                    var request = requests.get(i);
+                    if (item.isFailure()) {
+                        throw new OpenSearchExceptionWrapper(item.failure().error().reason(),
+                                String.join(", ", request.index()));
+                    }
+                    results.add(toSearchResponseDTO(request, item.result().hits()));
+                }
+                return results;
+            });
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return CompletableFuture.failedFuture(new OpenSearchExceptionWrapper(e.getMessage(), indexNames(requests)));
+        }
+    }
+
+    private static String indexNames(List<SearchRequest> requests) {
+        return requests.stream()
+                .flatMap(r -> r.index().stream())
+                .distinct()
+                .collect(Collectors.joining(", "));
+    }
+
+    private static <T extends IndexBase> SearchResponseDTO<T> toSearchResponseDTO(SearchRequest request, HitsMetadata<T> hits) {
+        var response = new SearchResponseDTO<T>();
+        response.setTotalHitCount(hits.total().value());
+        var sources = hits.hits().stream()
+                .filter(hit -> hit.source() != null)
+                .map(hit -> {
+                    var base = hit.source();
+                    base.setHighlights(hit.highlight());
+                    return base;
+                })
+                .toList();
+        response.setResponseObjects(sources);
+        response.setPageFrom(request.from());
+        response.setPageSize(request.size());
+        return response;
+    }
+}
@@ -1,22 +1,43 @@
 package fi.vm.yti.common.opensearch;
 
+import fi.vm.yti.common.exception.OpenSearchExceptionWrapper;
+import org.opensearch.client.opensearch._types.FieldValue;
 import org.opensearch.client.opensearch._types.mapping.TypeMapping;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 @Service
 public class OpenSearchInitializer {
 
     private static final Logger LOG = LoggerFactory.getLogger(OpenSearchInitializer.class);
 
+    private static final Duration SYNC_OVERLAP = Duration.ofMinutes(1);
+
+    private static final DateTimeFormatter INDEX_VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
     @Value("${openSearch.initOnStartUp:true}")
     private boolean initIndexesOnStartUp;
 
+    @Value("${openSearch.unusedIndexGraceHours:24}")
+    private long unusedIndexGraceHours = 24;
+
     private final OpenSearchClientWrapper client;
 
     @Autowired
@@ -28,23 +49,212 @@ public class OpenSearchInitializer {
         initIndexes(initFn, mappings, false);
     }
 
+    /**
+     * Rebuild indexes without downtime. Every key in mappings is used as an alias. New versioned
+     * indexes are created and loaded with initFn while the aliases still point to the old indexes.
+     * After loading, the aliases are switched atomically and old indexes are deleted.
+     * Single document writes during the rebuild go to both the old and the new index.
+     * If any document fails to load with a bulk ingester, the new indexes are removed and the aliases are kept.
+     * Versioned indexes left without an alias by an interrupted rebuild are deleted before the rebuild.
+     *
+     * @param initFn function loading the documents; bulk writes to the alias names are redirected to the new indexes
+     * @param mappings index (alias) names and mappings
+     * @param force initialize even if initialization on startup is disabled
+     */
     public void initIndexes(InitIndexesFunction initFn, Map<String, TypeMapping> mappings, boolean force) {
+        initIndexes(initFn, null, mappings, force);
+    }
+
+    /**
+     * Rebuild indexes as in {@link #initIndexes(InitIndexesFunction, Map, boolean)}. Live writes during
+     * the rebuild go to both indexes, but initFn loads a snapshot read before them and may overwrite them
+     * or add back deleted documents. After initFn, catchUpFn is called with the start time of the rebuild
+     * (minus the sync overlap) while writes still go to both indexes, so that changes made during the
+     * load are written to the new index before the alias is switched.
+     *
+     * @param initFn function loading the documents
+     * @param catchUpFn function synchronizing changes since the given time, may be null
+     * @param mappings index (alias) names and mappings
+     * @param force initialize even if initialization on startup is disabled
+     */
+    public void initIndexes(InitIndexesFunction initFn, SyncIndexesFunction catchUpFn,
+                            Map<String, TypeMapping> mappings, boolean force) {
         if (!initIndexesOnStartUp && !force) {
             LOG.info("Index initialization is disabled on startup. Please set openSearch.initOnStartUp=true to reindex");
             return;
         }
 
+        // build new versioned indexes while the aliases still point to the old ones
+        var startTime = Instant.now();
+        var version = LocalDateTime.now().format(INDEX_VERSION_FORMAT);
+        var buildIndexes = new LinkedHashMap<String, String>();
         try {
+            removeUnusedIndexes(mappings.keySet());
             for (var mapping : mappings.entrySet()) {
-                var index = mapping.getKey();
-                LOG.info("Init index {}", index);
-                client.cleanIndexes(index);
-                client.createIndex(index, mapping.getValue());
+                var alias = mapping.getKey();
+                var index = alias + "_" + version;
+                LOG.info("Init index {} ({})", alias, index);
+                if (!client.createIndex(index, mapping.getValue(), true)) {
+                    throw new OpenSearchExceptionWrapper("Could not create index", index);
+                }
+                buildIndexes.put(alias, index);
+                if (client.indexExists(alias)) {
+                    client.addWriteIndex(alias, index);
+                } else {
+                    client.setWriteIndex(alias, index);
+                }
             }
 
             initFn.apply();
+            if (catchUpFn != null) {
+                catchUpFn.apply(startTime.minus(SYNC_OVERLAP));
+            }
+
+            // bulk ingesters only log failed documents, do not replace a complete index with an incomplete one
+            for (var index : buildIndexes.values()) {
+                var failures = client.getBulkFailures(index);
+                if (failures > 0) {
+                    throw new OpenSearchExceptionWrapper("Could not index " + failures + " documents", index);
+                }
+            }
+
+            for (var entry : new ArrayList<>(buildIndexes.entrySet())) {
+                client.restoreIndexSettings(entry.getValue());
+                client.switchAlias(entry.getKey(), entry.getValue());
+                buildIndexes.remove(entry.getKey());
+            }
+            client.setHighWaterMark(syncName(mappings), startTime);
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
+            removeBuildIndexes(buildIndexes.values());
+        } finally {
+            mappings.keySet().forEach(client::clearWriteIndex);
+            mappings.keySet().forEach(alias -> client.clearBulkFailures(alias + "_" + version));
+        }
+    }
+
+    /**
+     * Synchronize only documents modified since the previous synchronization or full reindex.
+     * If the indexes have not been initialized or synchronized before, a full reindex is done instead.
+     * syncFn receives the previous high water mark (minus a small overlap to tolerate clock differences)
+     * and is responsible for upserting modified documents and removing deleted ones, e.g. with
+     * {@link fi.vm.yti.common.repository.BaseRepository#getGraphsModifiedSince(Instant)}.
+     *
+     * @param initFn function for full reindex
+     * @param syncFn function for incremental synchronization
+     * @param mappings index (alias) names and mappings
+     */
+    public void syncIndexes(InitIndexesFunction initFn, SyncIndexesFunction syncFn, Map<String, TypeMapping> mappings) {
+        syncIndexes(initFn, syncFn, null, Map.of(), mappings);
+    }
+
+    /**
+     * Synchronize modified documents as in {@link #syncIndexes(InitIndexesFunction, SyncIndexesFunction, Map)}
+     * and remove documents of deleted graphs. Modification timestamps cannot reveal deleted graphs,
+     * so after syncFn the existing graphs are listed with existingGraphsFn (e.g.
+     * {@link fi.vm.yti.common.repository.BaseRepository#getGraphs()}) and documents whose graph field
+     * does not contain any of them are removed. Documents without the graph field are kept, and nothing is
+     * removed if existingGraphsFn returns an empty set. A graph created after the listing has a modification
+     * time later than the new high water mark, so the next synchronization adds it back.
+     *
+     * @param initFn function for full reindex
+     * @param syncFn function for incremental synchronization
+     * @param existingGraphsFn function listing the existing graphs
+     * @param graphFields index (alias) names and the keyword field containing the graph URI of the document
+     * @param mappings index (alias) names and mappings
+     */
+    public void syncIndexes(InitIndexesFunction initFn, SyncIndexesFunction syncFn,
+                            ExistingGraphsFunction existingGraphsFn, Map<String, String> graphFields,
+                            Map<String, TypeMapping> mappings) {
+        var name = syncName(mappings);
+        var highWaterMark = client.getHighWaterMark(name);
+
+        try {
+            if (highWaterMark == null || !indexesExist(mappings)) {
+                LOG.info("No previous sync state found for {}, running full reindex", name);
+                initIndexes(initFn, since -> sync(syncFn, existingGraphsFn, graphFields, since), mappings, true);
+                return;
+            }
+
+            var startTime = Instant.now();
+            LOG.info("Sync indexes {} modified since {}", name, highWaterMark);
+            sync(syncFn, existingGraphsFn, graphFields, highWaterMark.minus(SYNC_OVERLAP));
+            client.setHighWaterMark(name, startTime);
+            LOG.info("Synced indexes {} (took {} ms)", name, Duration.between(startTime, Instant.now()).toMillis());
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+
+    private void sync(SyncIndexesFunction syncFn, ExistingGraphsFunction existingGraphsFn,
+                      Map<String, String> graphFields, Instant since) {
+        syncFn.apply(since);
+        if (existingGraphsFn != null) {
+            removeDeletedGraphs(existingGraphsFn.apply(), graphFields);
+        }
+    }
+
+    private void removeDeletedGraphs(Set<String> existingGraphs, Map<String, String> graphFields) {
+        // an empty list is more likely a failed or unfinished listing than a dataset without graphs
+        if (existingGraphs == null || existingGraphs.isEmpty()) {
+            LOG.warn("No existing graphs found, documents of deleted graphs are not removed");
+            return;
+        }
+        var values = existingGraphs.stream()
+                .map(FieldValue::of)
+                .toList();
+        graphFields.forEach((index, field) -> {
+            var query = Query.of(q -> q.bool(b -> b
+                    .must(m -> m.exists(e -> e.field(field)))
+                    .mustNot(m -> m.terms(t -> t
+                            .field(field)
+                            .terms(v -> v.value(values))))));
+            client.removeFromIndexWithQuery(index, query);
+        });
+    }
+
+    private boolean indexesExist(Map<String, TypeMapping> mappings) throws IOException {
+        for (var index : mappings.keySet()) {
+            if (!client.indexExists(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String syncName(Map<String, TypeMapping> mappings) {
+        return String.join(",", new TreeSet<>(mappings.keySet()));
+    }
+
+    /**
+     * Delete versioned indexes of the aliases that the aliases do not point to. Indexes created
+     * less than openSearch.unusedIndexGraceHours ago are kept, because another instance may still be building them.
+     */
+    private void removeUnusedIndexes(Collection<String> aliases) throws IOException {
+        var createdBefore = LocalDateTime.now().minusHours(unusedIndexGraceHours);
+        for (var alias : aliases) {
+            var versionPattern = Pattern.compile(Pattern.quote(alias) + "_(\\d{17})");
+            var aliased = client.getAliasedIndexes(alias);
+            var unused = client.getIndexes(alias + "_*").stream()
+                    .filter(index -> !aliased.contains(index))
+                    .filter(index -> {
+                        var matcher = versionPattern.matcher(index);
+                        return matcher.matches()
+                                && LocalDateTime.parse(matcher.group(1), INDEX_VERSION_FORMAT).isBefore(createdBefore);
+                    })
+                    .toArray(String[]::new);
+            if (unused.length > 0) {
+                LOG.info("Removing unused indexes of {}: {}", alias, String.join(", ", unused));
+                client.cleanIndexes(unused);
+            }
+        }
+    }
+
+    private void removeBuildIndexes(Collection<String> indexes) {
+        try {
+            client.cleanIndexes(indexes.toArray(String[]::new));
+        } catch (Exception e) {
+            LOG.error("Could not remove indexes " + indexes, e);
         }
     }
 
@@ -52,4 +262,14 @@ public class OpenSearchInitializer {
     public interface InitIndexesFunction {
         void apply();
     }
+
+    @FunctionalInterface
+    public interface SyncIndexesFunction {
+        void apply(Instant modifiedSince);
+    }
+
+    @FunctionalInterface
+    public interface ExistingGraphsFunction {
+        Set<String> apply();
+    }
 }
@@ -1,14 +1,22 @@
 package fi.vm.yti.common.opensearch;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CountingOutputStream;
 import jakarta.json.stream.JsonGenerator;
 import org.opensearch.client.json.JsonpMapper;
 import org.opensearch.client.json.JsonpSerializable;
 import org.opensearch.client.json.jackson.JacksonJsonpMapper;
 import org.opensearch.client.opensearch._types.mapping.*;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.msearch.MultisearchBody;
+import org.opensearch.client.opensearch.core.msearch.MultisearchHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.util.List;
 import java.util.Map;
 
@@ -16,6 +24,7 @@ public class OpenSearchUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(OpenSearchUtil.class);
     private static final JsonpMapper MAPPER = new JacksonJsonpMapper();
+    private static final ObjectMapper JSON = new ObjectMapper();
     private static final String DEFAULT_ANALYZER = "yti";
 
     private OpenSearchUtil() {}
@@ -49,6 +58,72 @@ public class OpenSearchUtil {
         return out.toString();
     }
 
+    /**
+     * Copy the body of the search request to a multi search body. All fields are copied, and the request is
+     * rejected if something cannot be expressed in a multi search body, so that a multi search never returns
+     * different results than the same search sent alone.
+     *
+     * @param request search request
+     * @return multi search body
+     * @throws IllegalArgumentException if the request contains fields not supported in a multi search
+     */
+    public static MultisearchBody toMultisearchBody(SearchRequest request) {
+        var json = getPayload(request);
+        MultisearchBody body;
+        try (var parser = MAPPER.jsonProvider().createParser(new StringReader(json))) {
+            body = MultisearchBody._DESERIALIZER.deserialize(parser, MAPPER);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Search request cannot be sent in a multi search: " + e.getMessage(), e);
+        }
+        if (!sameJson(json, getPayload(body))) {
+            throw new IllegalArgumentException("Search request contains fields not supported in a multi search: " + json);
+        }
+        return body;
+    }
+
+    /**
+     * Copy the index and the query parameters of the search request that a multi search supports per search
+     * (routing, preference, search type, index options and request cache) to a multi search header
+     *
+     * @param request search request
+     * @return multi search header
+     */
+    public static MultisearchHeader toMultisearchHeader(SearchRequest request) {
+        var header = new MultisearchHeader.Builder()
+                .index(request.index())
+                .routing(request.routing())
+                .preference(request.preference())
+                .searchType(request.searchType())
+                .ignoreUnavailable(request.ignoreUnavailable())
+                .allowNoIndices(request.allowNoIndices())
+                .requestCache(request.requestCache());
+        if (!request.expandWildcards().isEmpty()) {
+            header.expandWildcards(request.expandWildcards());
+        }
+        return header.build();
+    }
+
+    private static boolean sameJson(String a, String b) {
+        try {
+            return JSON.readTree(a).equals(JSON.readTree(b));
+        } catch (JsonProcessingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Calculate size of the object serialized to JSON
+     * @param object object to serialize
+     * @return size in bytes
+     */
+    public static long getPayloadSize(Object object) {
+        var out = new CountingOutputStream(OutputStream.nullOutputStream());
+        JsonGenerator generator = MAPPER.jsonProvider().createGenerator(out);
+        MAPPER.serialize(object, generator);
+        generator.close();
+        return out.getCount();
+    }
+
     public static Map<String, DynamicTemplate> getDynamicTemplate(String name, String pathMatch) {
         return Map.of(name, new DynamicTemplate.Builder()
                 .pathMatch(pathMatch)
@@ -0,0 +1,119 @@
+package fi.vm.yti.common.opensearch;
+
+import fi.vm.yti.common.exception.OpenSearchExceptionWrapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOptions;
+import org.opensearch.client.opensearch._types.Time;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.pit.CreatePitRequest;
+import org.opensearch.client.opensearch.core.pit.DeletePitRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates all documents matching the query using a point in time and search_after.
+ * Pages are fetched lazily and each page costs the same regardless of how deep the iteration is.
+ * The point in time is deleted when the last page has been read or the iterator is closed.
+ */
+class PointInTimeIterator<T extends IndexBase> implements Iterator<T>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PointInTimeIterator.class);
+
+    private static final String KEEP_ALIVE = "1m";
+
+    private final OpenSearchClient client;
+    private final String index;
+    private final Query query;
+    private final List<SortOptions> sort;
+    private final int pageSize;
+    private final Class<T> type;
+
+    private String pitId;
+    private List<String> searchAfter;
+    private Iterator<Hit<T>> page = Collections.emptyIterator();
+    private boolean lastPage;
+
+    PointInTimeIterator(OpenSearchClient client, String index, Query query, List<SortOptions> sort,
+                        int pageSize, Class<T> type) {
+        this.client = client;
+        this.index = index;
+        this.query = query;
+        this.sort = sort;
+        this.pageSize = pageSize;
+        this.type = type;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !lastPage) {
+            fetchNextPage();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next().source();
+    }
+
+    @Override
+    public void close() {
+        lastPage = true;
+        if (pitId == null) {
+            return;
+        }
+        try {
+            client.deletePit(new DeletePitRequest.Builder().pitId(List.of(pitId)).build());
+        } catch (IOException | OpenSearchException e) {
+            LOG.warn("Could not delete point in time for {}: {}", index, e.getMessage());
+        }
+        pitId = null;
+    }
+
+    private void fetchNextPage() {
+        try {
+            if (pitId == null) {
+                pitId = client.createPit(new CreatePitRequest.Builder()
+                        .targetIndexes(index)
+                        .keepAlive(Time.of(t -> t.time(KEEP_ALIVE)))
+                        .build()).pitId();
+            }
+
+            var request = new SearchRequest.Builder()
+                    .pit(p -> p.id(pitId).keepAlive(KEEP_ALIVE))
+                    .query(query)
+                    .sort(sort)
+                    .size(pageSize);
+            if (searchAfter != null) {
+                request.searchAfter(searchAfter);
+            }
+
+            var hits = client.search(request.build(), type).hits().hits();
+            if (hits.size() < pageSize) {
+                close();
+            }
+            if (!hits.isEmpty()) {
+                searchAfter = hits.get(hits.size() - 1).sort();
+            }
+            page = hits.stream()
+                    .filter(hit -> hit.source() != null)
+                    .iterator();
+        } catch (IOException | OpenSearchException e) {
+            LOG.error(e.getMessage(), e);
+            close();
+            throw new OpenSearchExceptionWrapper(e.getMessage(), index);
+        }
+    }
+}
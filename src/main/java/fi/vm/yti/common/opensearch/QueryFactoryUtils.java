@@ -7,7 +7,9 @@ import org.opensearch.client.opensearch._types.SortOptionsBuilders;
 import org.opensearch.client.opensearch._types.SortOrder;
 import org.opensearch.client.opensearch._types.mapping.FieldType;
 import org.opensearch.client.opensearch._types.query_dsl.*;
+import org.opensearch.client.opensearch.core.search.SourceConfig;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -68,6 +70,37 @@ public class QueryFactoryUtils {
         return SortOptions.of(s -> s.field(builder));
     }
 
+    /**
+     * Return only given fields of the _source
+     *
+     * @param includes fields to include, wildcards are allowed
+     * @param excludes fields to exclude, wildcards are allowed
+     * @return source config
+     */
+    public static SourceConfig sourceFilter(List<String> includes, List<String> excludes) {
+        return SourceConfig.of(s -> s.filter(f -> f
+                .includes(includes)
+                .excludes(excludes)));
+    }
+
+    /**
+     * Source filter for {@link IndexProjection} results: id, uri, status and label in the given language
+     * (and in the default language as a fallback)
+     *
+     * @param lang label language
+     * @return source config
+     */
+    public static SourceConfig projectionSource(String lang) {
+        var sortLang = getSortLang(lang);
+        var labels = sortLang.equals(DEFAULT_SORT_LANG)
+                ? List.of("label." + sortLang)
+                : List.of("label." + sortLang, "label." + DEFAULT_SORT_LANG);
+
+        var includes = new ArrayList<>(List.of("id", "uri", "status"));
+        includes.addAll(labels);
+        return sourceFilter(includes, List.of());
+    }
+
     // COMMON QUERIES
 
     public static Query hideDraftStatusQuery() {
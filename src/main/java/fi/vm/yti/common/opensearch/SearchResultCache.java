@@ -0,0 +1,129 @@
+package fi.vm.yti.common.opensearch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.opensearch.client.opensearch.core.SearchRequest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for search results. Cache key contains the serialized request, result type and
+ * a generation counter for every searched index. Writes to an index increase its generation,
+ * so results cached before the write are never returned.
+ * <p>
+ * Writes without refresh become visible to searches only after the next index refresh. Results
+ * of such indexes are not cached until refreshDelayMillis has passed since the write, so that
+ * results missing the write are not cached under the new generation. Requests without an index
+ * (searching all indexes) or with index patterns ({@code *} or comma separated names) are never cached,
+ * because writes to the matching indexes cannot be tracked.
+ */
+public class SearchResultCache {
+
+    private final Cache<String, SearchResponseDTO<?>> cache;
+
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> pendingRefresh = new ConcurrentHashMap<>();
+
+    private final long refreshDelayNanos;
+
+    public SearchResultCache(long maximumSize, long expireAfterWriteSeconds, long refreshDelayMillis) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .build();
+        this.refreshDelayNanos = TimeUnit.MILLISECONDS.toNanos(refreshDelayMillis);
+    }
+
+    /**
+     * @param request search request
+     * @param type result type
+     * @return cache key or null if the result must not be cached
+     */
+    public String key(SearchRequest request, Class<?> type) {
+        if (request.index().isEmpty()
+                || request.index().stream().anyMatch(index -> isPattern(index) || isPendingRefresh(index))) {
+            return null;
+        }
+        var key = new StringBuilder(type.getName());
+        request.index().forEach(index -> key
+                .append('|')
+                .append(index)
+                .append('@')
+                .append(generation(index).get()));
+        return key.append('|')
+                .append(OpenSearchUtil.getPayload(request))
+                .toString();
+    }
+
+    /**
+     * Get cached result. Returned object is a copy, but the document list is shared between callers
+     * and must not be modified.
+     *
+     * @param key cache key
+     * @return cached result or null
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends IndexBase> SearchResponseDTO<T> get(String key) {
+        var cached = (SearchResponseDTO<T>) cache.getIfPresent(key);
+        return cached != null ? copy(cached) : null;
+    }
+
+    public <T extends IndexBase> void put(String key, SearchResponseDTO<T> response) {
+        cache.put(key, copy(response));
+    }
+
+    /**
+     * Invalidate all cached results containing documents from the index
+     *
+     * @param index index name
+     */
+    public void invalidate(String index) {
+        invalidate(index, true);
+    }
+
+    /**
+     * Invalidate all cached results containing documents from the index
+     *
+     * @param index index name
+     * @param visible true if the write was refreshed before it was acknowledged
+     */
+    public void invalidate(String index, boolean visible) {
+        if (!visible) {
+            pendingRefresh.merge(index, System.nanoTime() + refreshDelayNanos, Math::max);
+        }
+        generation(index).incrementAndGet();
+    }
+
+    private static boolean isPattern(String index) {
+        return index.contains("*") || index.contains(",");
+    }
+
+    private boolean isPendingRefresh(String index) {
+        var until = pendingRefresh.get(index);
+        if (until == null) {
+            return false;
+        }
+        if (until - System.nanoTime() > 0) {
+            return true;
+        }
+        pendingRefresh.remove(index, until);
+        return false;
+    }
+
+    private AtomicLong generation(String index) {
+        return generations.computeIfAbsent(index, i -> new AtomicLong());
+    }
+
+    private static <T extends IndexBase> SearchResponseDTO<T> copy(SearchResponseDTO<T> response) {
+        var copy = new SearchResponseDTO<T>();
+        copy.setTotalHitCount(response.getTotalHitCount());
+        copy.setPageFrom(response.getPageFrom());
+        copy.setPageSize(response.getPageSize());
+        copy.setResponseObjects(response.getResponseObjects());
+        return copy;
+    }
+}
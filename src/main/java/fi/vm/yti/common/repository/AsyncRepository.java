@@ -0,0 +1,78 @@
+package fi.vm.yti.common.repository;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.Model;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Runs repository operations on dedicated thread pools so that independent Fuseki calls
+ * can be issued in parallel. Each endpoint (graph store and SPARQL query) has its own pool,
+ * which limits the number of concurrent requests per endpoint. Additional calls are queued.
+ *
+ * @param <R> repository type
+ */
+public class AsyncRepository<R extends BaseRepository> implements AutoCloseable {
+
+    private final R repository;
+
+    private final ExecutorService graphStoreExecutor;
+
+    private final ExecutorService queryExecutor;
+
+    public AsyncRepository(R repository, int maxConcurrencyPerEndpoint) {
+        this.repository = repository;
+        this.graphStoreExecutor = Executors.newFixedThreadPool(maxConcurrencyPerEndpoint, threadFactory("fuseki-gsp"));
+        this.queryExecutor = Executors.newFixedThreadPool(maxConcurrencyPerEndpoint, threadFactory("fuseki-query"));
+    }
+
+    public R getRepository() {
+        return repository;
+    }
+
+    public CompletableFuture<Model> fetch(String graph) {
+        return CompletableFuture.supplyAsync(() -> repository.fetch(graph), graphStoreExecutor);
+    }
+
+    public CompletableFuture<Model> queryConstruct(Query query) {
+        return CompletableFuture.supplyAsync(() -> repository.queryConstruct(query), queryExecutor);
+    }
+
+    public CompletableFuture<Boolean> queryAsk(Query query) {
+        return CompletableFuture.supplyAsync(() -> repository.queryAsk(query), queryExecutor);
+    }
+
+    public CompletableFuture<Boolean> graphExists(String graph) {
+        return CompletableFuture.supplyAsync(() -> repository.graphExists(graph), queryExecutor);
+    }
+
+    /**
+     * Run select query. Consumer is called on the executor thread.
+     *
+     * @param query query
+     * @param consumer consumer for result rows
+     * @return future completed when all rows are consumed
+     */
+    public CompletableFuture<Void> querySelect(Query query, Consumer<QuerySolution> consumer) {
+        return CompletableFuture.runAsync(() -> repository.querySelect(query, consumer), queryExecutor);
+    }
+
+    @Override
+    public void close() {
+        graphStoreExecutor.shutdown();
+        queryExecutor.shutdown();
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(name + "-%d")
+                .setDaemon(true)
+                .build();
+    }
+}
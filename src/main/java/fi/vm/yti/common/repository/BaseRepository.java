@@ -1,22 +1,68 @@
 package fi.vm.yti.common.repository;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import fi.vm.yti.common.exception.JenaQueryException;
 import fi.vm.yti.common.exception.ResourceNotFoundException;
+import fi.vm.yti.common.properties.SuomiMeta;
 import fi.vm.yti.common.util.GraphURI;
 import org.apache.jena.arq.querybuilder.AskBuilder;
+import org.apache.jena.arq.querybuilder.ExprFactory;
+import org.apache.jena.arq.querybuilder.SelectBuilder;
 import org.apache.jena.arq.querybuilder.UpdateBuilder;
 import org.apache.jena.arq.querybuilder.WhereBuilder;
 import org.apache.jena.atlas.web.HttpException;
+import org.apache.jena.datatypes.xsd.XSDDateTime;
+import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionBuilder;
+import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.Syntax;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.modify.request.QuadDataAcc;
+import org.apache.jena.sparql.modify.request.UpdateDataDelete;
+import org.apache.jena.sparql.modify.request.UpdateDataInsert;
+import org.apache.jena.sparql.modify.request.UpdateDrop;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.system.Txn;
 import org.apache.jena.update.UpdateRequest;
 import org.apache.jena.vocabulary.DCTerms;
 import org.springframework.http.HttpStatus;
 
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public abstract class BaseRepository {
 
@@ -25,6 +71,35 @@ public abstract class BaseRepository {
     RDFConnection sparql;
     RDFConnection update;
 
+    private static final String STREAM_ACCEPT_HEADER = String.join(", ",
+            WebContent.contentTypeRDFThrift,
+            WebContent.contentTypeNTriples + ";q=0.9",
+            WebContent.contentTypeTurtle + ";q=0.8");
+
+    private String graphStoreEndpoint;
+
+    private HttpClient graphStoreHttpClient;
+
+    private Duration graphCacheRefreshInterval;
+
+    private volatile Set<String> knownGraphs;
+
+    private volatile long knownGraphsLoaded;
+
+    // increased before the cached graph list is updated, so that a list loaded during a change is not cached
+    private final AtomicLong knownGraphsVersion = new AtomicLong();
+
+    private FusekiEndpointGuard readGuard;
+    private FusekiEndpointGuard writeGuard;
+    private FusekiEndpointGuard sparqlGuard;
+    private FusekiEndpointGuard updateGuard;
+
+    private volatile Cache<String, Set<String>> identifierCache;
+
+    // increased before invalidating cached identifiers, so that loads running during a change are not cached
+    private final Map<String, AtomicLong> graphVersions = new ConcurrentHashMap<>();
+    private final AtomicLong allGraphsVersion = new AtomicLong();
+
     protected BaseRepository(RDFConnection read, RDFConnection write) {
         this.read = read;
         this.write = write;
@@ -45,7 +120,7 @@ public abstract class BaseRepository {
 
     public Model fetch(String graph) {
         try {
-            return read.fetch(graph);
+            return guardedCall(readGuard, true, () -> read.fetch(graph));
         } catch (HttpException ex) {
             if (ex.getStatusCode() == HttpStatus.NOT_FOUND.value()) {
                 throw new ResourceNotFoundException(graph);
@@ -55,19 +130,186 @@ public abstract class BaseRepository {
         }
     }
 
+    /**
+     * Stream graph to the sink without building an in-memory model. The response is parsed
+     * incrementally, binary RDF Thrift is requested if the server supports it.
+     * Falls back to fetching the whole graph if graph store endpoint is not set.
+     *
+     * @param graph graph URI
+     * @param sink destination of the triples
+     */
+    public void fetchStream(String graph, StreamRDF sink) {
+        if (graphStoreEndpoint == null) {
+            StreamRDFOps.sendGraphToStream(fetch(graph).getGraph(), sink);
+            return;
+        }
+
+        var url = graphStoreEndpoint + "?graph=" + URLEncoder.encode(graph, StandardCharsets.UTF_8);
+        try {
+            // not retried, the sink may already have received part of the graph.
+            // Parsed on the calling thread, so the sink is never used after this method returns
+            guardedRun(readGuard, () -> {
+                var parser = RDFParser.source(url)
+                        .httpAccept(STREAM_ACCEPT_HEADER);
+                if (graphStoreHttpClient != null) {
+                    parser.httpClient(graphStoreHttpClient);
+                }
+                parser.parse(sink);
+            });
+        } catch (HttpException ex) {
+            if (ex.getStatusCode() == HttpStatus.NOT_FOUND.value()) {
+                throw new ResourceNotFoundException(graph);
+            } else {
+                throw new JenaQueryException();
+            }
+        }
+    }
+
+    /**
+     * Set graph store (GSP) read endpoint, e.g. http://fuseki:3030/core/get. Required for {@link #fetchStream}
+     *
+     * @param graphStoreEndpoint endpoint URL
+     */
+    protected void setGraphStoreEndpoint(String graphStoreEndpoint) {
+        setGraphStoreEndpoint(graphStoreEndpoint, null);
+    }
+
+    /**
+     * Set graph store (GSP) read endpoint and the HTTP client used for {@link #fetchStream},
+     * e.g. {@link TimeoutHttpClient} to limit the request time
+     *
+     * @param graphStoreEndpoint endpoint URL
+     * @param httpClient HTTP client, null for the default client
+     */
+    protected void setGraphStoreEndpoint(String graphStoreEndpoint, HttpClient httpClient) {
+        this.graphStoreEndpoint = graphStoreEndpoint;
+        this.graphStoreHttpClient = httpClient;
+    }
+
     public void put(String graph, Model model) {
-        write.put(graph, model);
+        guardedRun(writeGuard, () -> write.put(graph, model));
+        graphChanged(graph);
+        graphCreated(graph);
+    }
+
+    /**
+     * Fetch several graphs with one query
+     *
+     * @param graphs graph URIs
+     * @return dataset containing the graphs as named graphs. Graphs that do not exist are not included
+     */
+    public Dataset fetchAll(Collection<String> graphs) {
+        if (graphs.isEmpty()) {
+            return DatasetFactory.create();
+        }
+        var values = graphs.stream()
+                .map(graph -> FmtUtils.stringForNode(NodeFactory.createURI(graph)))
+                .collect(Collectors.joining(" "));
+        var query = QueryFactory.create(String.format(
+                "CONSTRUCT { GRAPH ?g { ?s ?p ?o } } WHERE { VALUES ?g { %s } GRAPH ?g { ?s ?p ?o } }", values),
+                Syntax.syntaxARQ);
+
+        try {
+            if (sparqlGuard != null) {
+                return sparqlGuard.call(() -> timedQuery(b -> b.query(query), QueryExecution::execConstructDataset), true);
+            }
+            try (var execution = sparql.query(query)) {
+                return execution.execConstructDataset();
+            }
+        } catch (HttpException ex) {
+            throw new JenaQueryException();
+        }
+    }
+
+    /**
+     * Replace several graphs with one update request
+     *
+     * @param graphs graph URIs and their contents
+     */
+    public void putAll(Map<String, Model> graphs) {
+        if (graphs.isEmpty()) {
+            return;
+        }
+        var request = new UpdateRequest();
+        graphs.forEach((graph, model) -> {
+            var graphNode = NodeFactory.createURI(graph);
+            request.add(new UpdateDrop(graphNode, true));
+            request.add(new UpdateDataInsert(toQuads(graphNode, model)));
+        });
+        try {
+            guardedRun(updateGuard, () -> update.update(request));
+        } catch (HttpException ex) {
+            throw new JenaQueryException();
+        } finally {
+            graphs.keySet().forEach(this::graphChanged);
+        }
+        graphs.keySet().forEach(this::graphCreated);
+    }
+
+    /**
+     * Write only the changes between base and model to the graph. Sends a DELETE DATA / INSERT DATA
+     * request, so the cost depends on the size of the change instead of the size of the graph.
+     * If the changes contain blank nodes, the whole graph is replaced instead, because blank nodes
+     * cannot be matched in DELETE DATA.
+     *
+     * @param graph graph URI
+     * @param base graph contents the model is based on, e.g. a copy made after fetching the graph
+     * @param model new graph contents
+     */
+    public void putDelta(String graph, Model base, Model model) {
+        var removed = base.difference(model);
+        var added = model.difference(base);
+
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+        if (containsBlankNodes(removed) || containsBlankNodes(added)) {
+            put(graph, model);
+            return;
+        }
+
+        var graphNode = NodeFactory.createURI(graph);
+        var request = new UpdateRequest();
+        if (!removed.isEmpty()) {
+            request.add(new UpdateDataDelete(toQuads(graphNode, removed)));
+        }
+        if (!added.isEmpty()) {
+            request.add(new UpdateDataInsert(toQuads(graphNode, added)));
+        }
+        try {
+            guardedRun(updateGuard, () -> update.update(request));
+        } catch (HttpException ex) {
+            throw new JenaQueryException();
+        } finally {
+            graphChanged(graph);
+        }
+        graphCreated(graph);
+    }
+
+    private static boolean containsBlankNodes(Model model) {
+        return model.getGraph().find()
+                .filterKeep(triple -> triple.getSubject().isBlank() || triple.getObject().isBlank())
+                .hasNext();
+    }
+
+    private static QuadDataAcc toQuads(Node graph, Model model) {
+        var quads = new QuadDataAcc();
+        model.getGraph().find().forEachRemaining(triple -> quads.addQuad(new Quad(graph, triple)));
+        return quads;
     }
 
     public void delete(String graph) {
         try {
-            write.delete(graph);
+            guardedRun(writeGuard, () -> write.delete(graph));
+            graphDeleted(graph);
         } catch (HttpException ex) {
             if (ex.getStatusCode() == HttpStatus.NOT_FOUND.value()) {
                 throw new ResourceNotFoundException(graph);
             } else {
                 throw new JenaQueryException();
             }
+        } finally {
+            graphChanged(graph);
         }
     }
 
@@ -76,69 +318,266 @@ public abstract class BaseRepository {
     }
 
     public void deleteResource(String resourceURI) {
-        var uri = NodeFactory.createURI(resourceURI);
-        var graph = NodeFactory.createURI(uri.getNameSpace());
-
-        var deleteBuilder = new UpdateBuilder();
-        var expr = deleteBuilder.getExprFactory();
-        var filter = expr.or(
-                expr.eq("?s", NodeFactory.createURI(resourceURI)),
-                expr.eq("?o", NodeFactory.createURI(resourceURI))
-        );
-        deleteBuilder.addDelete(graph, "?s", "?p", "?o")
-                .addGraph(graph, new WhereBuilder()
-                        .addWhere("?s", "?p", "?o")
-                        .addFilter(filter));
+        var request = new UpdateRequest();
+        addDeleteResource(request, resourceURI);
         try {
-            update.update(deleteBuilder.buildRequest());
+            guardedRun(updateGuard, () -> update.update(request));
         } catch (HttpException ex) {
             if (ex.getStatusCode() == HttpStatus.NOT_FOUND.value()) {
                 throw new ResourceNotFoundException(resourceURI);
             } else {
                 throw new JenaQueryException();
             }
+        } finally {
+            graphChanged(NodeFactory.createURI(resourceURI).getNameSpace());
+        }
+    }
+
+    /**
+     * Delete several resources and all references to them with one update request
+     *
+     * @param uris resources to delete
+     */
+    public void deleteResources(Collection<? extends GraphURI> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+        var request = new UpdateRequest();
+        uris.forEach(uri -> addDeleteResource(request, uri.getResourceURI()));
+        try {
+            guardedRun(updateGuard, () -> update.update(request));
+        } catch (HttpException ex) {
+            throw new JenaQueryException();
+        } finally {
+            uris.forEach(uri -> graphChanged(NodeFactory.createURI(uri.getResourceURI()).getNameSpace()));
         }
     }
 
+    /**
+     * Add deletes for triples where the resource is the subject or the object. Both patterns
+     * are bound to the resource, so they can be answered from the indexes without scanning the graph.
+     */
+    private static void addDeleteResource(UpdateRequest request, String resourceURI) {
+        var uri = NodeFactory.createURI(resourceURI);
+        var graph = NodeFactory.createURI(uri.getNameSpace());
+
+        request.add(new UpdateBuilder()
+                .addDelete(graph, uri, "?p", "?o")
+                .addGraph(graph, new WhereBuilder().addWhere(uri, "?p", "?o"))
+                .build());
+        request.add(new UpdateBuilder()
+                .addDelete(graph, "?s", "?p", uri)
+                .addGraph(graph, new WhereBuilder().addWhere("?s", "?p", uri))
+                .build());
+    }
+
     public boolean graphExists(String graph) {
+        if (graphCacheRefreshInterval != null) {
+            return getKnownGraphs().contains(graph);
+        }
         var askBuilder = new AskBuilder()
                 .addGraph(NodeFactory.createURI(graph), "?s", "?p", "?o");
         return this.queryAsk(askBuilder.build());
     }
 
+    /**
+     * Answer {@link #graphExists(String)} from a cached set of named graphs. The set is loaded with one query,
+     * updated on put and delete through this repository and reloaded when older than refreshInterval.
+     * Graphs created or deleted by other processes are noticed on the next reload.
+     *
+     * @param refreshInterval maximum age of the cached graph list
+     */
+    protected void enableGraphExistsCache(Duration refreshInterval) {
+        this.graphCacheRefreshInterval = refreshInterval;
+        this.knownGraphs = null;
+    }
+
+    /**
+     * Cached set of named graphs. If graphs are created or deleted through this repository while the set
+     * is loaded, it is loaded once more, and not cached if the graphs changed again.
+     */
+    private Set<String> getKnownGraphs() {
+        var graphs = knownGraphs;
+        if (graphs != null && !isKnownGraphsExpired()) {
+            return graphs;
+        }
+        synchronized (this) {
+            graphs = knownGraphs;
+            if (graphs != null && !isKnownGraphsExpired()) {
+                return graphs;
+            }
+            for (var attempt = 0; ; attempt++) {
+                var version = knownGraphsVersion.get();
+                graphs = loadGraphs();
+                knownGraphsLoaded = System.nanoTime();
+                knownGraphs = graphs;
+                // a change after this check updates the published set after increasing the version
+                if (version == knownGraphsVersion.get()) {
+                    return graphs;
+                }
+                knownGraphs = null;
+                if (attempt > 0) {
+                    return graphs;
+                }
+            }
+        }
+    }
+
+    private boolean isKnownGraphsExpired() {
+        return System.nanoTime() - knownGraphsLoaded > graphCacheRefreshInterval.toNanos();
+    }
+
+    private Set<String> loadGraphs() {
+        var graphs = ConcurrentHashMap.<String>newKeySet();
+        querySelect(QueryFactory.create("SELECT DISTINCT ?g WHERE { GRAPH ?g { } }"),
+                row -> graphs.add(row.getResource("g").getURI()));
+        return graphs;
+    }
+
     public boolean resourceExistsInGraph(String graph, String resource) {
         return resourceExistsInGraph(graph, resource, true);
     }
 
     public boolean resourceExistsInGraph(String graph, String resource, boolean caseSensitive) {
-        var askBuilder = new AskBuilder();
-        if (caseSensitive) {
-            askBuilder.addGraph(NodeFactory.createURI(graph),
-                    NodeFactory.createURI(resource), "?p", "?o");
-        } else {
+        if (!caseSensitive) {
             var localName = NodeFactory.createURI(resource).getLocalName();
-            var expr = askBuilder.getExprFactory();
-            askBuilder
-                    .addGraph(NodeFactory.createURI(graph), "?s", DCTerms.identifier, "?o")
-                    .addFilter(expr.regex("?o", String.format("^%s$", localName), "i"));
+            return getIdentifiers(graph).contains(localName.toLowerCase(Locale.ROOT));
         }
+        var askBuilder = new AskBuilder()
+                .addGraph(NodeFactory.createURI(graph),
+                        NodeFactory.createURI(resource), "?p", "?o");
         return this.queryAsk(askBuilder.build());
     }
 
+    /**
+     * Cache the identifiers used by case-insensitive {@link #resourceExistsInGraph(String, String, boolean)}.
+     * Cached identifiers are invalidated on writes through this repository and expire after the given time.
+     * Identifiers added by other processes are noticed only after expiration, so enable only when
+     * this repository is the only writer of the graphs or such a delay is acceptable.
+     *
+     * @param expiration maximum age of cached identifiers
+     */
+    protected void enableIdentifierCache(Duration expiration) {
+        this.identifierCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(expiration.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(1000)
+                .build();
+    }
+
+    /**
+     * Lower case dcterms:identifier values of the graph. Loaded with one query per graph, and if
+     * the identifier cache is enabled, cached until the graph is written through this repository
+     * or the cache entry expires. If the graph changes while the identifiers are loaded,
+     * they are loaded once more, and not cached if the graph changed again.
+     */
+    private Set<String> getIdentifiers(String graph) {
+        var identifierCache = this.identifierCache;
+        if (identifierCache == null) {
+            return loadIdentifiers(graph);
+        }
+        var cached = identifierCache.getIfPresent(graph);
+        if (cached != null) {
+            return cached;
+        }
+        for (var attempt = 0; ; attempt++) {
+            var version = graphVersion(graph);
+            var identifiers = loadIdentifiers(graph);
+            identifierCache.put(graph, identifiers);
+            // a change after this check invalidates the entry after increasing the version
+            if (version == graphVersion(graph)) {
+                return identifiers;
+            }
+            identifierCache.asMap().remove(graph, identifiers);
+            if (attempt > 0) {
+                return identifiers;
+            }
+        }
+    }
+
+    private long graphVersion(String graph) {
+        return allGraphsVersion.get() + graphVersions.computeIfAbsent(graph, g -> new AtomicLong()).get();
+    }
+
+    private Set<String> loadIdentifiers(String graph) {
+        var select = new SelectBuilder()
+                .addVar("?id")
+                .addGraph(NodeFactory.createURI(graph), new WhereBuilder()
+                        .addWhere("?s", DCTerms.identifier, "?id"));
+        var identifiers = new HashSet<String>();
+        querySelect(select.build(), row -> {
+            var id = row.get("id");
+            if (id.isLiteral()) {
+                identifiers.add(id.asLiteral().getString().toLowerCase(Locale.ROOT));
+            }
+        });
+        return Set.copyOf(identifiers);
+    }
+
+    /**
+     * Find graphs containing resources modified after the given time,
+     * based on dcterms:modified and suomi-meta:contentModified
+     *
+     * @param since modification time
+     * @return graph URIs
+     */
+    public Set<String> getGraphsModifiedSince(Instant since) {
+        var calendar = GregorianCalendar.from(since.atZone(ZoneOffset.UTC));
+        var sinceLiteral = ResourceFactory.createTypedLiteral(new XSDDateTime(calendar));
+        var graphs = new HashSet<String>();
+
+        // separate queries for each property, so that the patterns can be answered from the indexes
+        for (var property : List.of(DCTerms.modified, SuomiMeta.contentModified)) {
+            var expr = new ExprFactory();
+            var select = new SelectBuilder()
+                    .setDistinct(true)
+                    .addVar("?g")
+                    .addGraph("?g", new WhereBuilder()
+                            .addWhere("?s", property, "?modified")
+                            .addFilter(expr.gt("?modified", sinceLiteral)));
+            querySelect(select.build(), row -> graphs.add(row.getResource("g").getURI()));
+        }
+        return graphs;
+    }
+
+    /**
+     * All named graphs in the dataset. Always queried from the endpoint, so that synchronization
+     * can detect deleted graphs, e.g. with
+     * {@link fi.vm.yti.common.opensearch.OpenSearchInitializer#syncIndexes}.
+     *
+     * @return graph URIs
+     */
+    public Set<String> getGraphs() {
+        return Set.copyOf(loadGraphs());
+    }
+
     public Model queryConstruct(Query query) {
+        if (sparqlGuard != null) {
+            return sparqlGuard.call(() -> timedQuery(b -> b.query(query), QueryExecution::execConstruct), true);
+        }
         return sparql.queryConstruct(query);
     }
 
     public void querySelect(Query query, Consumer<QuerySolution> consumer) {
+        if (sparqlGuard != null) {
+            sparqlGuard.run(() -> timedQuery(b -> b.query(query), selectTo(consumer)), false);
+            return;
+        }
         sparql.querySelect(query, consumer);
     }
 
     public void querySelect(String query, Consumer<QuerySolution> consumer) {
+        if (sparqlGuard != null) {
+            sparqlGuard.run(() -> timedQuery(b -> b.query(query), selectTo(consumer)), false);
+            return;
+        }
         sparql.querySelect(query, consumer);
     }
 
     public boolean queryAsk(Query query) {
         try {
+            if (sparqlGuard != null) {
+                return sparqlGuard.call(() -> timedQuery(b -> b.query(query), QueryExecution::execAsk), true);
+            }
             return sparql.queryAsk(query);
         } catch (HttpException ex) {
             throw new JenaQueryException();
@@ -146,11 +585,119 @@ public abstract class BaseRepository {
     }
 
     public void queryUpdate(String query) {
-        update.update(query);
+        try {
+            guardedRun(updateGuard, () -> update.update(query));
+        } finally {
+            allGraphsChanged();
+        }
     }
 
     public void queryUpdate(UpdateRequest query) {
-        update.update(query);
+        try {
+            guardedRun(updateGuard, () -> update.update(query));
+        } finally {
+            allGraphsChanged();
+        }
+    }
+
+    /**
+     * Guard the connections with timeouts, retries for idempotent reads, a circuit breaker and a bulkhead.
+     * Each connection (read, write, sparql and update) has its own guard, so that e.g. slow updates do not
+     * block reads.
+     *
+     * @param settings settings shared by all guards
+     */
+    protected void enableEndpointGuards(FusekiEndpointGuard.Settings settings) {
+        readGuard = new FusekiEndpointGuard("get", settings);
+        writeGuard = new FusekiEndpointGuard("data", settings);
+        sparqlGuard = new FusekiEndpointGuard("sparql", settings);
+        updateGuard = new FusekiEndpointGuard("update", settings);
+    }
+
+    /**
+     * @return endpoint guards with their metrics, empty if guards are not enabled
+     */
+    public List<FusekiEndpointGuard> getEndpointGuards() {
+        return Stream.of(readGuard, writeGuard, sparqlGuard, updateGuard)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    private static <T> T guardedCall(FusekiEndpointGuard guard, boolean idempotent, Supplier<T> operation) {
+        return guard != null ? guard.call(operation, idempotent) : operation.get();
+    }
+
+    private static void guardedRun(FusekiEndpointGuard guard, Runnable operation) {
+        if (guard != null) {
+            guard.run(operation, false);
+        } else {
+            operation.run();
+        }
+    }
+
+    /**
+     * Execute query with the guard timeout as HTTP request timeout. Results are processed
+     * on the calling thread.
+     */
+    private <T> T timedQuery(Consumer<QueryExecutionBuilder> query, Function<QueryExecution, T> action) {
+        var builder = sparql.newQuery();
+        query.accept(builder);
+        builder.timeout(sparqlGuard.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        return Txn.calculateRead(sparql, () -> {
+            try (var execution = builder.build()) {
+                return action.apply(execution);
+            }
+        });
+    }
+
+    private static Function<QueryExecution, Void> selectTo(Consumer<QuerySolution> consumer) {
+        return execution -> {
+            execution.execSelect().forEachRemaining(consumer);
+            return null;
+        };
+    }
+
+    /**
+     * Invalidate cached information of the graph. Called after writes through this repository,
+     * should be called by subclasses writing to the graph by other means.
+     *
+     * @param graph graph URI
+     */
+    protected void graphChanged(String graph) {
+        graphVersions.computeIfAbsent(graph, g -> new AtomicLong()).incrementAndGet();
+        var identifierCache = this.identifierCache;
+        if (identifierCache != null) {
+            identifierCache.invalidate(graph);
+        }
+    }
+
+    /**
+     * Invalidate cached information of all graphs, e.g. after an update affecting unknown graphs
+     */
+    protected void allGraphsChanged() {
+        allGraphsVersion.incrementAndGet();
+        var identifierCache = this.identifierCache;
+        if (identifierCache != null) {
+            identifierCache.invalidateAll();
+        }
+        knownGraphsVersion.incrementAndGet();
+        knownGraphs = null;
+    }
+
+    private void graphCreated(String graph) {
+        knownGraphsVersion.incrementAndGet();
+        var graphs = knownGraphs;
+        if (graphs != null) {
+            graphs.add(graph);
+        }
+    }
+
+    private void graphDeleted(String graph) {
+        knownGraphsVersion.incrementAndGet();
+        var graphs = knownGraphs;
+        if (graphs != null) {
+            graphs.remove(graph);
+        }
     }
 
     public boolean isHealthy() {
@@ -1,13 +1,16 @@
 package fi.vm.yti.common.repository;
 
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import fi.vm.yti.common.Constants;
 import org.apache.jena.arq.querybuilder.ConstructBuilder;
 import org.apache.jena.arq.querybuilder.ExprFactory;
 import org.apache.jena.arq.querybuilder.WhereBuilder;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.http.HttpEnv;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.sparql.vocabulary.FOAF;
 import org.apache.jena.vocabulary.RDF;
@@ -15,9 +18,12 @@ import org.apache.jena.vocabulary.RDFS;
 import org.apache.jena.vocabulary.SKOS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.time.Duration;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 @Repository
@@ -25,19 +31,66 @@ public class CommonRepository extends BaseRepository {
 
     private final Logger logger = LoggerFactory.getLogger(CommonRepository.class);
 
-    private final Cache<String, Model> modelCache;
+    private static final String ORGANIZATIONS = "organizations";
 
+    private static final String SERVICE_CATEGORIES = "serviceCategories";
+
+    /**
+     * Models are reloaded in the background after cacheExpireTime. Until the reload completes
+     * (or if it fails) the previous model is returned, and concurrent misses share one load.
+     */
+    private final LoadingCache<String, Model> modelCache;
+
+    private final TimeoutHttpClient httpClient;
+
+    @Autowired
     public CommonRepository(@Value(("${fuseki.url}")) String endpoint,
-                            @Value("${fuseki.cache.common.expiration:1800}") Long cacheExpireTime) {
-        super(RDFConnection.connect(endpoint + "/core/get"),
-                RDFConnection.connect(endpoint + "/core/data"),
-                RDFConnection.connect(endpoint + "/core/sparql"),
-                RDFConnection.connect(endpoint + "/core/update"));
+                            @Value("${fuseki.cache.common.expiration:1800}") Long cacheExpireTime,
+                            @Value("${fuseki.wireFormat:text}") String wireFormat) {
+        this(endpoint, cacheExpireTime, FusekiConnectionFactory.wireFormat(wireFormat),
+                new TimeoutHttpClient(HttpEnv.getDftHttpClient()));
+    }
 
+    private CommonRepository(String endpoint, Long cacheExpireTime,
+                             FusekiConnectionFactory.WireFormat wireFormat, TimeoutHttpClient httpClient) {
+        super(FusekiConnectionFactory.connect(endpoint + "/core/get", wireFormat, httpClient),
+                FusekiConnectionFactory.connect(endpoint + "/core/data", wireFormat, httpClient),
+                FusekiConnectionFactory.connect(endpoint + "/core/sparql", wireFormat, httpClient),
+                FusekiConnectionFactory.connect(endpoint + "/core/update", FusekiConnectionFactory.WireFormat.TEXT, httpClient));
+        this.httpClient = httpClient;
+        setGraphStoreEndpoint(endpoint + "/core/get", httpClient);
+
+        var reloadExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("common-model-reload-%d")
+                .setDaemon(true)
+                .build());
         this.modelCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(cacheExpireTime, TimeUnit.SECONDS)
+                .refreshAfterWrite(cacheExpireTime, TimeUnit.SECONDS)
                 .maximumSize(1000)
-                .build();
+                .build(CacheLoader.asyncReloading(CacheLoader.from(this::loadModel), reloadExecutor));
+    }
+
+    @Autowired
+    void configureEndpointGuards(@Value("${fuseki.guard.enabled:false}") boolean enabled,
+                                 @Value("${fuseki.guard.timeout:30000}") long timeoutMillis,
+                                 @Value("${fuseki.guard.maxRetries:2}") int maxRetries,
+                                 @Value("${fuseki.guard.retryBackoff:100}") long retryBackoffMillis,
+                                 @Value("${fuseki.guard.failureThreshold:5}") int failureThreshold,
+                                 @Value("${fuseki.guard.openDuration:10000}") long openMillis,
+                                 @Value("${fuseki.guard.maxConcurrent:32}") int maxConcurrent) {
+        if (!enabled) {
+            return;
+        }
+        var settings = new FusekiEndpointGuard.Settings();
+        settings.setTimeoutMillis(timeoutMillis);
+        settings.setMaxRetries(maxRetries);
+        settings.setRetryBackoffMillis(retryBackoffMillis);
+        settings.setFailureThreshold(failureThreshold);
+        settings.setOpenMillis(openMillis);
+        settings.setMaxConcurrent(maxConcurrent);
+        // graph store and update requests have no timeout setting of their own
+        httpClient.setRequestTimeout(Duration.ofMillis(timeoutMillis));
+        enableEndpointGuards(settings);
     }
 
     public void initServiceCategories() {
@@ -46,29 +99,39 @@ public class CommonRepository extends BaseRepository {
     }
 
     public Model getOrganizations() {
-        var organizations = modelCache.getIfPresent("organizations");
-
-        if (organizations != null) {
-            return organizations;
-        }
-
-        organizations = fetch(Constants.ORGANIZATION_GRAPH);
-        logger.info("Fetched organizations from fuseki to cache");
-        modelCache.put("organizations", organizations);
-        return organizations;
+        return getCachedModel(ORGANIZATIONS);
     }
 
     public void invalidateOrganizationCache() {
-        modelCache.invalidate("organizations");
+        modelCache.invalidate(ORGANIZATIONS);
     }
 
     public Model getServiceCategories() {
-        var serviceCategories = modelCache.getIfPresent("serviceCategories");
+        return getCachedModel(SERVICE_CATEGORIES);
+    }
 
-        if (serviceCategories != null) {
-            return serviceCategories;
+    private Model getCachedModel(String key) {
+        try {
+            return modelCache.getUnchecked(key);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
         }
+    }
+
+    private Model loadModel(String key) {
+        var model = switch (key) {
+            case ORGANIZATIONS -> fetch(Constants.ORGANIZATION_GRAPH);
+            case SERVICE_CATEGORIES -> fetchServiceCategories();
+            default -> throw new IllegalArgumentException("Unknown model " + key);
+        };
+        logger.info("Fetched {} from fuseki to cache", key);
+        return model;
+    }
 
+    private Model fetchServiceCategories() {
         var cat = "?category";
         ConstructBuilder builder = new ConstructBuilder()
                 .addPrefixes(Constants.PREFIXES)
@@ -84,10 +147,7 @@ public class CommonRepository extends BaseRepository {
                         new WhereBuilder().addWhere(cat, SKOS.broader, "?topCategory")
                 ));
 
-        serviceCategories = queryConstruct(builder.build());
-        logger.info("Fetched service categories from fuseki to cache");
-        modelCache.put("serviceCategories", serviceCategories);
-        return serviceCategories;
+        return queryConstruct(builder.build());
     }
 
 }
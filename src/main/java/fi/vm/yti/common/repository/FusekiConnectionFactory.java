@@ -0,0 +1,72 @@
+package fi.vm.yti.common.repository;
+
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.rdfconnection.RDFConnectionRemote;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.WebContent;
+
+import java.net.http.HttpClient;
+
+/**
+ * Creates connections to Fuseki using the configured RDF wire format.
+ * Binary formats (RDF Thrift and RDF Protobuf) are faster to parse and smaller than
+ * the default text formats for both graphs and SPARQL SELECT results.
+ */
+public class FusekiConnectionFactory {
+
+    public enum WireFormat {
+        TEXT,
+        THRIFT,
+        PROTOBUF
+    }
+
+    private FusekiConnectionFactory() {
+        // utility class
+    }
+
+    public static WireFormat wireFormat(String value) {
+        if (value == null || value.isBlank()) {
+            return WireFormat.TEXT;
+        }
+        return WireFormat.valueOf(value.trim().toUpperCase());
+    }
+
+    public static RDFConnection connect(String destination, WireFormat format) {
+        return connect(destination, format, null);
+    }
+
+    /**
+     * @param destination endpoint URL
+     * @param format wire format
+     * @param httpClient HTTP client used for the requests, e.g. {@link TimeoutHttpClient}, null for the default client
+     * @return connection
+     */
+    public static RDFConnection connect(String destination, WireFormat format, HttpClient httpClient) {
+        var builder = RDFConnectionRemote.newBuilder()
+                .destination(destination);
+        if (httpClient != null) {
+            builder.httpClient(httpClient);
+        }
+
+        switch (format) {
+            case THRIFT -> builder
+                    .acceptHeaderGraph(WebContent.contentTypeRDFThrift)
+                    .acceptHeaderDataset(WebContent.contentTypeRDFThrift)
+                    .acceptHeaderSelectQuery(WebContent.contentTypeResultsThrift)
+                    .triplesFormat(RDFFormat.RDF_THRIFT)
+                    .quadsFormat(RDFFormat.RDF_THRIFT);
+            case PROTOBUF -> builder
+                    .acceptHeaderGraph(WebContent.contentTypeRDFProtobuf)
+                    .acceptHeaderDataset(WebContent.contentTypeRDFProtobuf)
+                    .acceptHeaderSelectQuery(WebContent.contentTypeResultsProtobuf)
+                    .triplesFormat(RDFFormat.RDF_PROTO)
+                    .quadsFormat(RDFFormat.RDF_PROTO);
+            default -> {
+                if (httpClient == null) {
+                    return RDFConnection.connect(destination);
+                }
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,304 @@
+package fi.vm.yti.common.repository;
+
+import fi.vm.yti.common.exception.JenaQueryException;
+import org.apache.jena.atlas.web.HttpException;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Protects callers from a slow or failing Fuseki endpoint. Operations run on the calling thread,
+ * so result consumers and sinks are never called concurrently or after the call has returned.
+ * <ul>
+ *     <li>timeout: SPARQL queries are executed with the timeout as HTTP request timeout. Graph store and
+ *     update requests get it from {@link TimeoutHttpClient} when the connections use one, as in CommonRepository.
+ *     Timed out requests fail as connection errors, and operations taking longer than the timeout are counted
+ *     as failures, so a slow or hung endpoint opens the circuit</li>
+ *     <li>bulkhead: at most maxConcurrent operations run at the same time, further calls are rejected immediately</li>
+ *     <li>circuit breaker: after failureThreshold consecutive failures calls are rejected for openMillis,
+ *     then one trial call decides whether the endpoint is usable again</li>
+ *     <li>retry: idempotent operations are retried with jittered exponential backoff</li>
+ * </ul>
+ * Rejected calls throw {@link JenaQueryException}. Client errors (4xx) are passed through
+ * to the caller and are not counted as failures. HTTP errors are recognized from both
+ * {@link HttpException} (graph store and update requests) and {@link QueryExceptionHTTP} (SPARQL queries).
+ */
+public class FusekiEndpointGuard {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FusekiEndpointGuard.class);
+
+    public static class Settings {
+        private long timeoutMillis = 30000;
+        private int maxRetries = 2;
+        private long retryBackoffMillis = 100;
+        private int failureThreshold = 5;
+        private long openMillis = 10000;
+        private int maxConcurrent = 32;
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public long getRetryBackoffMillis() {
+            return retryBackoffMillis;
+        }
+
+        public void setRetryBackoffMillis(long retryBackoffMillis) {
+            this.retryBackoffMillis = retryBackoffMillis;
+        }
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public long getOpenMillis() {
+            return openMillis;
+        }
+
+        public void setOpenMillis(long openMillis) {
+            this.openMillis = openMillis;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    public static class Metrics {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder slowCalls = new LongAdder();
+        private final LongAdder circuitRejections = new LongAdder();
+        private final LongAdder bulkheadRejections = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public long getSlowCalls() {
+            return slowCalls.sum();
+        }
+
+        public long getCircuitRejections() {
+            return circuitRejections.sum();
+        }
+
+        public long getBulkheadRejections() {
+            return bulkheadRejections.sum();
+        }
+
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+        }
+    }
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final Settings settings;
+    private final Semaphore permits;
+    private final Metrics metrics = new Metrics();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public FusekiEndpointGuard(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.getMaxConcurrent());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTimeoutMillis() {
+        return settings.getTimeoutMillis();
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isOpen() {
+        synchronized (this) {
+            return state == State.OPEN;
+        }
+    }
+
+    /**
+     * Run operation through the guard on the calling thread
+     *
+     * @param operation operation calling the endpoint
+     * @param idempotent true if the operation may be retried
+     * @return operation result
+     */
+    public <T> T call(Supplier<T> operation, boolean idempotent) {
+        var attempt = 0;
+        while (true) {
+            try {
+                return callOnce(operation);
+            } catch (HttpException | QueryExceptionHTTP e) {
+                if (!idempotent || !isServerFailure(e) || attempt >= settings.getMaxRetries()) {
+                    throw e;
+                }
+            }
+            metrics.retries.increment();
+            backoff(attempt++);
+        }
+    }
+
+    public void run(Runnable operation, boolean idempotent) {
+        call(() -> {
+            operation.run();
+            return null;
+        }, idempotent);
+    }
+
+    private <T> T callOnce(Supplier<T> operation) {
+        metrics.calls.increment();
+        acquireCircuit();
+        if (!permits.tryAcquire()) {
+            metrics.bulkheadRejections.increment();
+            releaseTrial();
+            throw new JenaQueryException("Too many concurrent requests to Fuseki endpoint " + name);
+        }
+
+        var start = System.nanoTime();
+        try {
+            var result = operation.get();
+            onCompleted(start, false);
+            return result;
+        } catch (HttpException | QueryExceptionHTTP e) {
+            onCompleted(start, isServerFailure(e));
+            throw e;
+        } catch (RuntimeException e) {
+            onCompleted(start, true);
+            throw e;
+        } catch (Error e) {
+            releaseTrial();
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void onCompleted(long start, boolean failed) {
+        var elapsed = System.nanoTime() - start;
+        metrics.totalNanos.add(elapsed);
+        var slow = elapsed > TimeUnit.MILLISECONDS.toNanos(settings.getTimeoutMillis());
+        if (slow) {
+            metrics.slowCalls.increment();
+        }
+        if (failed || slow) {
+            onFailure();
+        } else {
+            onSuccess();
+        }
+    }
+
+    private synchronized void acquireCircuit() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < TimeUnit.MILLISECONDS.toNanos(settings.getOpenMillis())) {
+                metrics.circuitRejections.increment();
+                throw new JenaQueryException("Fuseki endpoint " + name + " is unavailable");
+            }
+            state = State.HALF_OPEN;
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            // trial call in progress
+            metrics.circuitRejections.increment();
+            throw new JenaQueryException("Fuseki endpoint " + name + " is unavailable");
+        }
+    }
+
+    private synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("Fuseki endpoint {} recovered", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    private synchronized void onFailure() {
+        metrics.failures.increment();
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= settings.getFailureThreshold()) {
+            if (state != State.OPEN) {
+                LOG.warn("Fuseki endpoint {} failed {} times, rejecting requests for {}ms",
+                        name, consecutiveFailures, settings.getOpenMillis());
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    private void backoff(int attempt) {
+        var max = settings.getRetryBackoffMillis() << Math.min(attempt, 10);
+        var delay = max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JenaQueryException();
+        }
+    }
+
+    /**
+     * Connection errors and timeouts have no status code (-1), server errors 5xx
+     */
+    private static boolean isServerFailure(RuntimeException e) {
+        var statusCode = e instanceof QueryExceptionHTTP queryException
+                ? queryException.getStatusCode()
+                : ((HttpException) e).getStatusCode();
+        return statusCode < 400 || statusCode >= 500;
+    }
+}
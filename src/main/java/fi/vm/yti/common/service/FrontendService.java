@@ -1,38 +1,82 @@
 package fi.vm.yti.common.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.vm.yti.common.dto.OrganizationDTO;
 import fi.vm.yti.common.dto.ServiceCategoryDTO;
 import fi.vm.yti.common.mapper.OrganizationMapper;
 import fi.vm.yti.common.mapper.ServiceCategoryMapper;
 import fi.vm.yti.common.repository.CommonRepository;
+import fi.vm.yti.common.util.CachedJsonResponse;
+import org.apache.jena.rdf.model.Model;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import static fi.vm.yti.common.Constants.DEFAULT_LANGUAGE;
+import static fi.vm.yti.common.Constants.USED_LANGUAGES;
 
+/**
+ * Organizations and service categories for the frontend. Mapped and sorted lists are built once
+ * for each model returned by {@link CommonRepository} and reused until the repository cache is refreshed.
+ * Returned lists are shared between callers, so they are immutable and the DTOs must not be modified.
+ * JSON serialized lists can be served directly with {@link CachedJsonResponse#toResponseEntity(String)}.
+ */
 @Service
 public class FrontendService {
 
     private final CommonRepository coreRepository;
 
-    public FrontendService(CommonRepository coreRepository) {
+    private volatile Snapshot<OrganizationDTO> organizationSnapshot;
+
+    private volatile Snapshot<OrganizationDTO> mainOrganizationSnapshot;
+
+    private volatile Snapshot<ServiceCategoryDTO> serviceCategorySnapshot;
+
+    private final ObjectMapper objectMapper;
+
+    public FrontendService(CommonRepository coreRepository, ObjectProvider<ObjectMapper> objectMapper) {
         this.coreRepository = coreRepository;
+        this.objectMapper = objectMapper.getIfAvailable(ObjectMapper::new);
     }
 
     public List<OrganizationDTO> getOrganizations(String sortLanguage, boolean includeChildOrganizations) {
-        var organizations = coreRepository.getOrganizations();
-        var dtos = OrganizationMapper.mapToListOrganizationDTO(organizations);
+        return getOrganizationSnapshot(includeChildOrganizations).get(sortLanguage);
+    }
 
-        dtos.sort((a, b) -> {
-            var labelA = a.getLabel().getOrDefault(sortLanguage, a.getLabel().get(DEFAULT_LANGUAGE));
-            var labelB = b.getLabel().getOrDefault(sortLanguage, b.getLabel().get(DEFAULT_LANGUAGE));
-            return labelA.compareTo(labelB);
-        });
+    /**
+     * Organizations serialized to JSON. The body is serialized once per language and variant
+     * and reused until the organizations are refreshed.
+     *
+     * @param sortLanguage sort language
+     * @param includeChildOrganizations include child organizations
+     * @return serialized response with ETag
+     */
+    public CachedJsonResponse getOrganizationsJson(String sortLanguage, boolean includeChildOrganizations) {
+        return getOrganizationSnapshot(includeChildOrganizations).json(sortLanguage, objectMapper);
+    }
 
-        return includeChildOrganizations ? dtos : dtos.stream()
-                .filter(dto -> dto.getParentOrganization() == null)
-                .toList();
+    private Snapshot<OrganizationDTO> getOrganizationSnapshot(boolean includeChildOrganizations) {
+        var organizations = coreRepository.getOrganizations();
+
+        var snapshot = includeChildOrganizations ? organizationSnapshot : mainOrganizationSnapshot;
+        if (snapshot == null || snapshot.source != organizations) {
+            var dtos = OrganizationMapper.mapToListOrganizationDTO(organizations);
+            organizationSnapshot = new Snapshot<>(organizations, dtos, OrganizationDTO::getLabel);
+            mainOrganizationSnapshot = new Snapshot<>(organizations, dtos.stream()
+                    .filter(dto -> dto.getParentOrganization() == null)
+                    .toList(), OrganizationDTO::getLabel);
+            snapshot = includeChildOrganizations ? organizationSnapshot : mainOrganizationSnapshot;
+        }
+        return snapshot;
     }
 
     public List<ServiceCategoryDTO> getServiceCategories() {
@@ -40,15 +84,82 @@ public class FrontendService {
     }
 
     public List<ServiceCategoryDTO> getServiceCategories(String sortLanguage) {
+        return getServiceCategorySnapshot().get(sortLanguage);
+    }
+
+    /**
+     * Service categories serialized to JSON, see {@link #getOrganizationsJson(String, boolean)}
+     *
+     * @param sortLanguage sort language
+     * @return serialized response with ETag
+     */
+    public CachedJsonResponse getServiceCategoriesJson(String sortLanguage) {
+        return getServiceCategorySnapshot().json(sortLanguage, objectMapper);
+    }
+
+    private Snapshot<ServiceCategoryDTO> getServiceCategorySnapshot() {
         var serviceCategories = coreRepository.getServiceCategories();
-        var dtos = ServiceCategoryMapper.mapToListServiceCategoryDTO(serviceCategories);
 
-        dtos.sort((a, b) -> {
-            var labelA = a.getLabel().getOrDefault(sortLanguage, a.getLabel().get(DEFAULT_LANGUAGE));
-            var labelB = b.getLabel().getOrDefault(sortLanguage, b.getLabel().get(DEFAULT_LANGUAGE));
+        var snapshot = serviceCategorySnapshot;
+        if (snapshot == null || snapshot.source != serviceCategories) {
+            snapshot = new Snapshot<>(serviceCategories,
+                    ServiceCategoryMapper.mapToListServiceCategoryDTO(serviceCategories),
+                    ServiceCategoryDTO::getLabel);
+            serviceCategorySnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    private static <T> Comparator<T> labelComparator(String sortLanguage, Function<T, Map<String, String>> label) {
+        return (a, b) -> {
+            var labelA = label.apply(a).getOrDefault(sortLanguage, label.apply(a).get(DEFAULT_LANGUAGE));
+            var labelB = label.apply(b).getOrDefault(sortLanguage, label.apply(b).get(DEFAULT_LANGUAGE));
             return labelA.compareTo(labelB);
-        });
+        };
+    }
+
+    /**
+     * DTOs mapped from one model, sorted by label in each used language
+     */
+    private static class Snapshot<T> {
+        private final Model source;
+        private final List<T> dtos;
+        private final Function<T, Map<String, String>> label;
+        private final Map<String, List<T>> sorted = new HashMap<>();
+        private final Map<String, CachedJsonResponse> json = new ConcurrentHashMap<>();
+
+        private Snapshot(Model source, List<T> dtos, Function<T, Map<String, String>> label) {
+            this.source = source;
+            this.dtos = dtos;
+            this.label = label;
+            USED_LANGUAGES.forEach(lang -> sorted.put(lang, sort(lang)));
+        }
+
+        private List<T> get(String sortLanguage) {
+            var result = sorted.get(sortLanguage);
+            // other languages are sorted on request, so that arbitrary parameters do not grow the snapshot
+            return result != null ? result : sort(sortLanguage);
+        }
+
+        private CachedJsonResponse json(String sortLanguage, ObjectMapper mapper) {
+            if (!sorted.containsKey(sortLanguage)) {
+                return serialize(get(sortLanguage), mapper);
+            }
+            return json.computeIfAbsent(sortLanguage, lang -> serialize(sorted.get(lang), mapper));
+        }
+
+        private static CachedJsonResponse serialize(List<?> dtos, ObjectMapper mapper) {
+            try {
+                return new CachedJsonResponse(mapper.writeValueAsBytes(dtos));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
 
-        return dtos;
+        private List<T> sort(String sortLanguage) {
+            var list = new ArrayList<>(dtos);
+            list.sort(labelComparator(sortLanguage, label));
+            return List.copyOf(list);
+        }
     }
 }
@@ -2,17 +2,17 @@ package fi.vm.yti.common.service;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import fi.vm.yti.common.Constants;
 import fi.vm.yti.common.dto.GroupManagementOrganizationDTO;
 import fi.vm.yti.common.dto.GroupManagementUserDTO;
 import fi.vm.yti.common.dto.GroupManagementUserRequestDTO;
 import fi.vm.yti.common.dto.ResourceCommonInfoDTO;
-import fi.vm.yti.common.properties.SuomiMeta;
 import fi.vm.yti.common.repository.CommonRepository;
-import fi.vm.yti.common.util.MapperUtils;
 import fi.vm.yti.security.AuthenticatedUserProvider;
 import fi.vm.yti.security.AuthorizationException;
 import fi.vm.yti.security.YtiUser;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +25,7 @@ import org.springframework.web.reactive.function.client.WebClient;
 
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -46,6 +47,12 @@ public class GroupManagementService {
 
     private final Cache<String, GroupManagementUserDTO> userCache;
 
+    private final Cache<UserOrganizationsKey, Set<UUID>> userOrganizationCache;
+
+    private volatile Model hierarchySource;
+
+    private volatile OrganizationHierarchy organizationHierarchy;
+
     private static final String PUBLIC_API = "public-api";
 
     private static final String PRIVATE_API = "private-api";
@@ -58,6 +65,10 @@ public class GroupManagementService {
         this.coreRepository = coreRepository;
         this.userProvider = userProvider;
         userCache = CacheBuilder.newBuilder().build();
+        userOrganizationCache = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .build();
     }
 
     public void initOrganizations() {
@@ -69,6 +80,8 @@ public class GroupManagementService {
         var model = ModelFactory.createDefaultModel();
         mapOrganizationsToModel(organizations, model);
         coreRepository.put(Constants.ORGANIZATION_GRAPH, model);
+        coreRepository.invalidateOrganizationCache();
+        userOrganizationCache.invalidateAll();
         LOG.info("Initialized organizations with {} organizations", organizations.size());
     }
 
@@ -79,9 +92,11 @@ public class GroupManagementService {
 
         if (organizations != null && !organizations.isEmpty()) {
             var model = coreRepository.fetch(Constants.ORGANIZATION_GRAPH);
+            var base = ModelFactory.createDefaultModel().add(model);
             mapOrganizationsToModel(organizations, model);
-            coreRepository.put(Constants.ORGANIZATION_GRAPH, model);
+            coreRepository.putDelta(Constants.ORGANIZATION_GRAPH, base, model);
             coreRepository.invalidateOrganizationCache();
+            userOrganizationCache.invalidateAll();
             LOG.info("Updated {} organizations to fuseki", organizations.size());
         } else {
             LOG.info("No updates to organizations found");
@@ -99,6 +114,7 @@ public class GroupManagementService {
         var map = users.stream().collect(Collectors.toMap(user -> user.getId().toString(), user -> user));
         userCache.invalidateAll();
         userCache.putAll(map);
+        userOrganizationCache.invalidateAll();
         LOG.info("Initialized user cache with {} users", map.size());
     }
 
@@ -111,6 +127,7 @@ public class GroupManagementService {
             var oldSize = userCache.size();
             var map = users.stream().collect(Collectors.toMap(user -> user.getId().toString(), user -> user));
             userCache.putAll(map);
+            userOrganizationCache.invalidateAll();
             LOG.info("Updated {} users to cache, old count: {}, new count: {}", map.size(), oldSize, userCache.size());
         } else {
             LOG.info("No modifications to users found");
@@ -138,18 +155,60 @@ public class GroupManagementService {
         };
     }
 
+    /**
+     * Despite the name, returns the organizations referenced with suomi-meta:parentOrganization,
+     * i.e. the organizations above the organization. Kept for compatibility.
+     *
+     * @param orgId organization id
+     * @return parent organization ids
+     * @deprecated use {@link #getParentOrganizations(UUID)}, or {@link #getDescendantOrganizations(UUID)}
+     * for organizations below the organization
+     */
+    @Deprecated
     public List<UUID> getChildOrganizations(UUID orgId) {
-        var orgUrn = Constants.URN_UUID + orgId.toString();
-        if (!coreRepository.resourceExistsInGraph(Constants.ORGANIZATION_GRAPH, orgUrn)) {
-            LOG.warn("Organization not found {}", orgUrn);
+        return getParentOrganizations(orgId);
+    }
+
+    /**
+     * Organizations directly above the organization in the organization tree,
+     * i.e. referenced with suomi-meta:parentOrganization
+     *
+     * @param orgId organization id
+     * @return parent organization ids
+     */
+    public List<UUID> getParentOrganizations(UUID orgId) {
+        var hierarchy = getOrganizationHierarchy();
+        if (!hierarchy.contains(orgId)) {
+            LOG.warn("Organization not found {}", Constants.URN_UUID + orgId);
             return new ArrayList<>();
         }
-        var model = coreRepository.getOrganizations();
+        return hierarchy.getParents(orgId);
+    }
 
-        var resource = model.getResource(orgUrn);
+    /**
+     * Organizations below the organization in the organization tree, at any depth
+     *
+     * @param orgId organization id
+     * @return descendant organization ids
+     */
+    public Set<UUID> getDescendantOrganizations(UUID orgId) {
+        return getOrganizationHierarchy().getDescendants(orgId);
+    }
 
-        return MapperUtils.arrayPropertyToList(resource, SuomiMeta.parentOrganization).stream()
-                .map(MapperUtils::getUUID).toList();
+    /**
+     * Organization tree index. Rebuilt when the organization model in the repository cache changes,
+     * i.e. after organizations are synced or the cache is refreshed.
+     */
+    public OrganizationHierarchy getOrganizationHierarchy() {
+        var model = coreRepository.getOrganizations();
+        var hierarchy = organizationHierarchy;
+        if (hierarchy == null || hierarchySource != model) {
+            hierarchy = OrganizationHierarchy.from(model);
+            organizationHierarchy = hierarchy;
+            hierarchySource = model;
+            userOrganizationCache.invalidateAll();
+        }
+        return hierarchy;
     }
 
     public List<GroupManagementUserDTO> getFakeableUsers() {
@@ -159,19 +218,44 @@ public class GroupManagementService {
         return List.of();
     }
 
+    /**
+     * Organizations the user has a role in, and their parent organizations (see {@link #getParentOrganizations(UUID)}).
+     * Results are cached per user and set of organizations until organizations or users are synced.
+     * The returned set is a copy and can be modified.
+     *
+     * @param user user
+     * @return organization ids
+     */
     public Set<UUID> getOrganizationsForUser(YtiUser user) {
         final var rolesInOrganizations = user.getRolesInOrganizations();
+        if (rolesInOrganizations.isEmpty()) {
+            return new HashSet<>();
+        }
 
-        var orgIds = new HashSet<>(rolesInOrganizations.keySet());
+        // rebuilding the hierarchy after a cache refresh also clears cached results
+        getOrganizationHierarchy();
+        var key = new UserOrganizationsKey(user.getId(), Set.copyOf(rolesInOrganizations.keySet()));
+        try {
+            return new HashSet<>(userOrganizationCache.get(key, () -> computeOrganizationsForUser(key.organizations)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new GroupManagementException(e.getMessage());
+        }
+    }
+
+    private Set<UUID> computeOrganizationsForUser(Set<UUID> organizations) {
+        var orgIds = new HashSet<>(organizations);
 
         // show child organization's incomplete content for main organization users
         var childOrganizationIds = orgIds.stream()
-                .map(this::getChildOrganizations)
+                .map(this::getParentOrganizations)
                 .flatMap(Collection::stream)
                 .collect(Collectors.toSet());
 
         orgIds.addAll(childOrganizationIds);
-        return orgIds;
+        return Set.copyOf(orgIds);
     }
 
     public List<GroupManagementUserRequestDTO> getUserRequests() {
@@ -246,4 +330,30 @@ public class GroupManagementService {
             super(message);
         }
     }
+
+    private static final class UserOrganizationsKey {
+        private final UUID userId;
+        private final Set<UUID> organizations;
+
+        private UserOrganizationsKey(UUID userId, Set<UUID> organizations) {
+            this.userId = userId;
+            this.organizations = organizations;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof UserOrganizationsKey other)) {
+                return false;
+            }
+            return Objects.equals(userId, other.userId) && organizations.equals(other.organizations);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, organizations);
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package fi.vm.yti.common.service;
+
+import fi.vm.yti.common.Constants;
+import fi.vm.yti.common.properties.SuomiMeta;
+import fi.vm.yti.common.util.MapperUtils;
+import org.apache.jena.rdf.model.Model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Immutable index of the organization tree built from the organization graph.
+ * Relations are based on suomi-meta:parentOrganization.
+ */
+public class OrganizationHierarchy {
+
+    private final Set<UUID> organizations;
+    private final Map<UUID, List<UUID>> parents;
+    private final Map<UUID, List<UUID>> children;
+
+    private OrganizationHierarchy(Set<UUID> organizations, Map<UUID, List<UUID>> parents,
+                                  Map<UUID, List<UUID>> children) {
+        this.organizations = organizations;
+        this.parents = parents;
+        this.children = children;
+    }
+
+    public static OrganizationHierarchy from(Model model) {
+        var organizations = new HashSet<UUID>();
+        var parents = new HashMap<UUID, List<UUID>>();
+        var children = new HashMap<UUID, List<UUID>>();
+
+        model.listSubjects()
+                .filterKeep(subject -> subject.isURIResource() && subject.getURI().startsWith(Constants.URN_UUID))
+                .forEachRemaining(subject -> {
+                    var id = MapperUtils.getUUID(subject.getURI());
+                    if (id == null) {
+                        return;
+                    }
+                    organizations.add(id);
+
+                    var parentIds = MapperUtils.arrayPropertyToList(subject, SuomiMeta.parentOrganization).stream()
+                            .map(MapperUtils::getUUID)
+                            .filter(Objects::nonNull)
+                            .toList();
+                    if (!parentIds.isEmpty()) {
+                        parents.put(id, parentIds);
+                    }
+                    parentIds.forEach(parent -> children.computeIfAbsent(parent, p -> new ArrayList<>()).add(id));
+                });
+
+        var childLists = new HashMap<UUID, List<UUID>>();
+        children.forEach((parent, list) -> childLists.put(parent, List.copyOf(list)));
+        return new OrganizationHierarchy(Set.copyOf(organizations), Map.copyOf(parents), Map.copyOf(childLists));
+    }
+
+    public boolean contains(UUID organization) {
+        return organizations.contains(organization);
+    }
+
+    /**
+     * @param organization organization id
+     * @return organizations referenced with suomi-meta:parentOrganization by the organization
+     */
+    public List<UUID> getParents(UUID organization) {
+        return parents.getOrDefault(organization, List.of());
+    }
+
+    /**
+     * @param organization organization id
+     * @return organizations referencing the organization with suomi-meta:parentOrganization
+     */
+    public List<UUID> getChildren(UUID organization) {
+        return children.getOrDefault(organization, List.of());
+    }
+
+    /**
+     * All organizations below the organization in the tree, excluding the organization itself
+     *
+     * @param organization organization id
+     * @return descendant organization ids
+     */
+    public Set<UUID> getDescendants(UUID organization) {
+        var result = new HashSet<UUID>();
+        var queue = new ArrayDeque<>(getChildren(organization));
+        while (!queue.isEmpty()) {
+            var child = queue.poll();
+            if (!child.equals(organization) && result.add(child)) {
+                queue.addAll(getChildren(child));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,70 @@
+package fi.vm.yti.common.util;
+
+import com.google.common.hash.Hashing;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Serialized JSON response body with a strong ETag computed from the content.
+ * The body is shared and must not be modified.
+ */
+public class CachedJsonResponse {
+
+    private final byte[] body;
+    private final String etag;
+
+    public CachedJsonResponse(byte[] body) {
+        this.body = body;
+        this.etag = "\"" + Hashing.murmur3_128().hashBytes(body) + "\"";
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Check If-None-Match request header against the ETag
+     *
+     * @param ifNoneMatch header value, may be null
+     * @return true if the client already has this version
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (var tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build response, 304 Not Modified if the client already has this version
+     *
+     * @param ifNoneMatch If-None-Match request header, may be null
+     * @return response entity with ETag header
+     */
+    public ResponseEntity<byte[]> toResponseEntity(String ifNoneMatch) {
+        if (matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .contentLength(body.length)
+                .body(body);
+    }
+}
@@ -0,0 +1,207 @@
+package fi.vm.yti.common.opensearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensearch.client.opensearch.OpenSearchAsyncClient;
+import org.opensearch.client.opensearch._types.ErrorResponse;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.IndexOperation;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkIngesterTest {
+
+    private OpenSearchAsyncClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        client = mock(OpenSearchAsyncClient.class);
+        when(client.bulk(any(BulkRequest.class))).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(bulkResponse(request, 201));
+        });
+    }
+
+    @Test
+    void testFlushOnMaxBytes() throws Exception {
+        var ingester = BulkIngester.builder(client, "test")
+                .maxOperations(100)
+                .maxEstimatedBytes(1000)
+                .build();
+
+        ingester.add(operation("1"), 600);
+        verify(client, times(0)).bulk(any(BulkRequest.class));
+        ingester.add(operation("2"), 600);
+
+        var captor = ArgumentCaptor.forClass(BulkRequest.class);
+        verify(client, times(1)).bulk(captor.capture());
+        assertEquals(2, captor.getValue().operations().size());
+
+        ingester.close();
+        assertEquals(2, ingester.getTotalOperations());
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+        var pending = new CompletableFuture<BulkResponse>();
+        when(client.bulk(any(BulkRequest.class)))
+                .thenAnswer(invocation -> pending.thenApply(r -> bulkResponse(invocation.getArgument(0), 201)))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(bulkResponse(invocation.getArgument(0), 201)));
+        var ingester = BulkIngester.builder(client, "test")
+                .maxOperations(1)
+                .maxConcurrentRequests(1)
+                .build();
+
+        ingester.add(operation("1"), 10);
+        var producer = CompletableFuture.runAsync(() -> ingester.add(operation("2"), 10));
+
+        // second batch waits for the first request to complete
+        Thread.sleep(200);
+        assertFalse(producer.isDone());
+        verify(client, times(1)).bulk(any(BulkRequest.class));
+
+        pending.complete(null);
+        producer.get(5, TimeUnit.SECONDS);
+        ingester.close();
+
+        verify(client, times(2)).bulk(any(BulkRequest.class));
+        assertEquals(2, ingester.getTotalOperations());
+        assertEquals(0, ingester.getTotalFailed());
+    }
+
+    @Test
+    void testRetryTooManyRequests() throws Exception {
+        when(client.bulk(any(BulkRequest.class)))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(bulkResponse(invocation.getArgument(0), 429)))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(bulkResponse(invocation.getArgument(0), 201)));
+        var stats = new ArrayList<BulkIngester.BatchStats>();
+        var ingester = BulkIngester.builder(client, "test")
+                .maxOperations(2)
+                .retryBackoffMillis(1)
+                .listener(stats::add)
+                .build();
+
+        ingester.add(operation("1"), 10);
+        ingester.add(operation("2"), 10);
+        ingester.close();
+
+        verify(client, times(2)).bulk(any(BulkRequest.class));
+        assertEquals(1, stats.size());
+        assertEquals(1, stats.get(0).getRetries());
+        assertEquals(0, ingester.getTotalFailed());
+    }
+
+    @Test
+    void testRetryTransientRequestFailure() throws Exception {
+        when(client.bulk(any(BulkRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(error(503)))
+                .thenReturn(CompletableFuture.failedFuture(new ConnectException("connection refused")))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(bulkResponse(invocation.getArgument(0), 201)));
+        var ingester = BulkIngester.builder(client, "test")
+                .retryBackoffMillis(1)
+                .build();
+
+        ingester.add(operation("1"), 10);
+        ingester.close();
+
+        verify(client, times(3)).bulk(any(BulkRequest.class));
+        assertEquals(0, ingester.getTotalFailed());
+    }
+
+    @Test
+    void testNoRetryOnRequestError() throws Exception {
+        when(client.bulk(any(BulkRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(new CompletionException(error(413))));
+        var ingester = BulkIngester.builder(client, "test")
+                .retryBackoffMillis(1)
+                .build();
+
+        ingester.add(operation("1"), 10);
+        ingester.add(operation("2"), 10);
+        ingester.close();
+
+        verify(client, times(1)).bulk(any(BulkRequest.class));
+        assertEquals(2, ingester.getTotalFailed());
+    }
+
+    @Test
+    void testTransientErrors() {
+        assertTrue(BulkIngester.isTransient(error(429)));
+        assertTrue(BulkIngester.isTransient(error(500)));
+        assertTrue(BulkIngester.isTransient(new CompletionException(new ConnectException("refused"))));
+        assertFalse(BulkIngester.isTransient(error(400)));
+        assertFalse(BulkIngester.isTransient(new CompletionException(error(413))));
+        assertFalse(BulkIngester.isTransient(new IllegalArgumentException("serialization failed")));
+    }
+
+    @Test
+    void testFailingListenerDoesNotBlockClose() throws Exception {
+        var ingester = BulkIngester.builder(client, "test")
+                .maxOperations(1)
+                .maxConcurrentRequests(1)
+                .listener(s -> {
+                    throw new IllegalStateException("listener failed");
+                })
+                .build();
+
+        ingester.add(operation("1"), 10);
+        ingester.add(operation("2"), 10);
+
+        CompletableFuture.runAsync(ingester::close).get(5, TimeUnit.SECONDS);
+        assertEquals(2, ingester.getTotalOperations());
+    }
+
+    private static BulkOperation operation(String id) {
+        return new IndexOperation.Builder<Object>()
+                .index("test")
+                .id(id)
+                .document(Map.of("id", id))
+                .build()
+                ._toBulkOperation();
+    }
+
+    private static OpenSearchException error(int status) {
+        return new OpenSearchException(ErrorResponse.of(r -> r
+                .status(status)
+                .error(e -> e.type("error").reason("status " + status))));
+    }
+
+    private static BulkResponse bulkResponse(BulkRequest request, int status) {
+        var items = new ArrayList<BulkResponseItem>();
+        request.operations().forEach(op -> items.add(BulkResponseItem.of(i -> {
+            i.operationType(OperationType.Index)
+                    .index("test")
+                    .status(status);
+            if (status >= 400) {
+                i.error(e -> e.type("rejected_execution_exception").reason("too many requests"));
+            }
+            return i;
+        })));
+        return BulkResponse.of(r -> r
+                .errors(status >= 400)
+                .took(1)
+                .items(List.copyOf(items)));
+    }
+}
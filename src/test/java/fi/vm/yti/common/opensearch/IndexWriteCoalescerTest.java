@@ -0,0 +1,168 @@
+package fi.vm.yti.common.opensearch;
+
+import fi.vm.yti.common.exception.OpenSearchExceptionWrapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.IndexOperation;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IndexWriteCoalescerTest {
+
+    private OpenSearchClient client;
+
+    private IndexWriteCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        client = mock(OpenSearchClient.class);
+        when(client.bulk(any(BulkRequest.class))).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            var items = new ArrayList<BulkResponseItem>();
+            request.operations().forEach(op -> items.add(item(null)));
+            return bulkResponse(items);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (coalescer != null) {
+            coalescer.close();
+        }
+    }
+
+    @Test
+    void testFlushAfterLinger() throws Exception {
+        coalescer = new IndexWriteCoalescer(client, 20, 100);
+
+        var futures = List.of(
+                coalescer.submit(operation("1"), Refresh.False),
+                coalescer.submit(operation("2"), Refresh.WaitFor),
+                coalescer.submit(operation("3"), Refresh.False));
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        var captor = ArgumentCaptor.forClass(BulkRequest.class);
+        verify(client, times(1)).bulk(captor.capture());
+        assertEquals(3, captor.getValue().operations().size());
+        assertEquals(Refresh.WaitFor, captor.getValue().refresh());
+    }
+
+    @Test
+    void testFlushOnMaxOperations() throws Exception {
+        // linger is longer than the test timeout, so only the size limit can trigger the flush
+        coalescer = new IndexWriteCoalescer(client, 60000, 2);
+
+        var first = coalescer.submit(operation("1"), Refresh.False);
+        var second = coalescer.submit(operation("2"), Refresh.False);
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        verify(client, times(1)).bulk(any(BulkRequest.class));
+    }
+
+    @Test
+    void testItemErrors() throws Exception {
+        when(client.bulk(any(BulkRequest.class))).thenReturn(bulkResponse(List.of(item(null), item("mapping failed"))));
+        coalescer = new IndexWriteCoalescer(client, 10000, 2);
+
+        var ok = coalescer.submit(operation("1"), Refresh.False);
+        var failed = coalescer.submit(operation("2"), Refresh.False);
+
+        ok.get(5, TimeUnit.SECONDS);
+        var e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(OpenSearchExceptionWrapper.class, e.getCause());
+    }
+
+    @Test
+    void testTransportFailure() throws Exception {
+        when(client.bulk(any(BulkRequest.class))).thenThrow(new IOException("connection refused"));
+        coalescer = new IndexWriteCoalescer(client, 10000, 2);
+
+        var first = coalescer.submit(operation("1"), Refresh.False);
+        var second = coalescer.submit(operation("2"), Refresh.False);
+
+        for (var future : List.of(first, second)) {
+            var e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void testUnexpectedResponseCompletesAllWrites() throws Exception {
+        // response without items must not leave callers waiting
+        when(client.bulk(any(BulkRequest.class))).thenReturn(bulkResponse(List.of()));
+        coalescer = new IndexWriteCoalescer(client, 10000, 2);
+
+        var first = coalescer.submit(operation("1"), Refresh.False);
+        var second = coalescer.submit(operation("2"), Refresh.False);
+
+        for (var future : List.of(first, second)) {
+            var e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void testWriteAfterClose() throws Exception {
+        coalescer = new IndexWriteCoalescer(client, 10000, 100);
+        coalescer.close();
+
+        var future = coalescer.submit(operation("1"), Refresh.True);
+
+        assertTrue(future.isDone());
+        future.get();
+        verify(client, times(1)).bulk(any(BulkRequest.class));
+    }
+
+    private static BulkOperation operation(String id) {
+        return new IndexOperation.Builder<Object>()
+                .index("test")
+                .id(id)
+                .document(Map.of("id", id))
+                .build()
+                ._toBulkOperation();
+    }
+
+    private static BulkResponseItem item(String error) {
+        return BulkResponseItem.of(i -> {
+            i.operationType(OperationType.Index)
+                    .index("test")
+                    .status(error == null ? 201 : 400);
+            if (error != null) {
+                i.error(e -> e.type("mapper_parsing_exception").reason(error));
+            }
+            return i;
+        });
+    }
+
+    private static BulkResponse bulkResponse(List<BulkResponseItem> items) {
+        return BulkResponse.of(r -> r
+                .errors(items.stream().anyMatch(i -> i.error() != null))
+                .took(1)
+                .items(items));
+    }
+}
@@ -0,0 +1,134 @@
+package fi.vm.yti.common.opensearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensearch.client.opensearch._types.mapping.TypeMapping;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OpenSearchInitializerTest {
+
+    private static final Map<String, TypeMapping> MAPPINGS = Map.of("models", new TypeMapping.Builder().build());
+
+    private OpenSearchClientWrapper client;
+
+    private OpenSearchInitializer initializer;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(OpenSearchClientWrapper.class);
+        initializer = new OpenSearchInitializer(client);
+    }
+
+    @Test
+    void testFullReindexWithoutHighWaterMark() throws Exception {
+        when(client.getHighWaterMark("models")).thenReturn(null);
+        when(client.createIndex(startsWith("models_"), any(TypeMapping.class), anyBoolean())).thenReturn(true);
+        var calls = new ArrayList<String>();
+        var start = Instant.now();
+
+        initializer.syncIndexes(() -> calls.add("init"), since -> {
+            // changes made during the load are synchronized before the alias switch
+            assertFalse(since.isBefore(start.minus(Duration.ofMinutes(1))));
+            calls.add("sync");
+        }, () -> Set.of("https://iri.suomi.fi/model/test/"), Map.of("models", "uri"), MAPPINGS);
+
+        assertEquals(List.of("init", "sync"), calls);
+        var order = inOrder(client);
+        order.verify(client).removeFromIndexWithQuery(eq("models"), any(Query.class));
+        order.verify(client).switchAlias(eq("models"), startsWith("models_"));
+        verify(client).setHighWaterMark(eq("models"), any(Instant.class));
+    }
+
+    @Test
+    void testBulkFailuresKeepOldIndex() throws Exception {
+        when(client.createIndex(startsWith("models_"), any(TypeMapping.class), anyBoolean())).thenReturn(true);
+        when(client.getBulkFailures(startsWith("models_"))).thenReturn(3L);
+
+        initializer.initIndexes(() -> { }, MAPPINGS, true);
+
+        verify(client, never()).switchAlias(anyString(), anyString());
+        verify(client, never()).setHighWaterMark(anyString(), any(Instant.class));
+        verify(client).cleanIndexes(startsWith("models_"));
+    }
+
+    @Test
+    void testRebuildWritesToBothIndexesAndRemovesLeftovers() throws Exception {
+        when(client.getAliasedIndexes("models")).thenReturn(Set.of("models_20240101120000000"));
+        var building = "models_" + LocalDateTime.now().minusMinutes(5).format(DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS"));
+        when(client.getIndexes("models_*")).thenReturn(Set.of(
+                "models_20240101120000000", "models_20240102120000000", "models_test", building));
+        when(client.indexExists("models")).thenReturn(true);
+        when(client.createIndex(startsWith("models_"), any(TypeMapping.class), anyBoolean())).thenReturn(true);
+
+        initializer.initIndexes(() -> { }, MAPPINGS, true);
+
+        // index created recently may still be built by another instance
+        verify(client).cleanIndexes("models_20240102120000000");
+        verify(client, never()).cleanIndexes(building);
+        verify(client).addWriteIndex(eq("models"), startsWith("models_"));
+        verify(client, never()).setWriteIndex(anyString(), anyString());
+        verify(client).clearWriteIndex("models");
+    }
+
+    @Test
+    void testIncrementalSync() throws Exception {
+        var highWaterMark = Instant.parse("2024-01-01T12:00:00Z");
+        when(client.getHighWaterMark("models")).thenReturn(highWaterMark);
+        when(client.indexExists("models")).thenReturn(true);
+        var syncCalls = new ArrayList<Instant>();
+
+        initializer.syncIndexes(() -> {
+            throw new AssertionError("full reindex not expected");
+        }, syncCalls::add, () -> Set.of("https://iri.suomi.fi/model/test/"), Map.of("models", "uri"), MAPPINGS);
+
+        assertEquals(List.of(highWaterMark.minus(Duration.ofMinutes(1))), syncCalls);
+
+        var captor = ArgumentCaptor.forClass(Query.class);
+        verify(client).removeFromIndexWithQuery(eq("models"), captor.capture());
+        assertEquals("uri", captor.getValue().bool().must().get(0).exists().field());
+        var terms = captor.getValue().bool().mustNot().get(0).terms();
+        assertEquals("uri", terms.field());
+        assertEquals("https://iri.suomi.fi/model/test/", terms.terms().value().get(0).stringValue());
+
+        var mark = ArgumentCaptor.forClass(Instant.class);
+        verify(client).setHighWaterMark(eq("models"), mark.capture());
+        assertTrue(mark.getValue().isAfter(highWaterMark));
+    }
+
+    @Test
+    void testEmptyGraphListDoesNotRemoveDocuments() throws Exception {
+        when(client.getHighWaterMark("models")).thenReturn(Instant.parse("2024-01-01T12:00:00Z"));
+        when(client.indexExists("models")).thenReturn(true);
+
+        initializer.syncIndexes(() -> {
+            throw new AssertionError("full reindex not expected");
+        }, since -> { }, Set::of, Map.of("models", "uri"), MAPPINGS);
+
+        verify(client, never()).removeFromIndexWithQuery(anyString(), any(Query.class));
+        verify(client).setHighWaterMark(eq("models"), any(Instant.class));
+    }
+}
@@ -0,0 +1,81 @@
+package fi.vm.yti.common.opensearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.opensearch._types.ExpandWildcard;
+import org.opensearch.client.opensearch._types.SearchType;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch.core.SearchRequest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenSearchUtilTest {
+
+    @Test
+    void testMultisearchBodyParity() throws Exception {
+        var request = new SearchRequest.Builder()
+                .index("test")
+                .query(q -> q.term(t -> t.field("status").value(v -> v.stringValue("VALID"))))
+                .postFilter(q -> q.exists(e -> e.field("label")))
+                .from(10)
+                .size(20)
+                .sort(s -> s.field(f -> f.field("id").order(SortOrder.Asc)))
+                .searchAfter(List.of("abc"))
+                .minScore(0.5)
+                .aggregations("types", a -> a.terms(t -> t.field("type")))
+                .source(s -> s.filter(f -> f.includes("id", "label")))
+                .trackTotalHits(t -> t.enabled(true))
+                .build();
+
+        var body = OpenSearchUtil.toMultisearchBody(request);
+
+        var json = new ObjectMapper();
+        assertEquals(json.readTree(OpenSearchUtil.getPayload(request)),
+                json.readTree(OpenSearchUtil.getPayload(body)));
+    }
+
+    @Test
+    void testMultisearchHeaderParameters() {
+        var request = new SearchRequest.Builder()
+                .index("test", "other")
+                .routing("user1")
+                .preference("_local")
+                .searchType(SearchType.DfsQueryThenFetch)
+                .ignoreUnavailable(true)
+                .allowNoIndices(false)
+                .expandWildcards(ExpandWildcard.Open)
+                .requestCache(false)
+                .query(q -> q.matchAll(m -> m))
+                .build();
+
+        var header = OpenSearchUtil.toMultisearchHeader(request);
+
+        assertEquals(List.of("test", "other"), header.index());
+        assertEquals("user1", header.routing());
+        assertEquals("_local", header.preference());
+        assertEquals(SearchType.DfsQueryThenFetch, header.searchType());
+        assertEquals(true, header.ignoreUnavailable());
+        assertEquals(false, header.allowNoIndices());
+        assertEquals(List.of(ExpandWildcard.Open), header.expandWildcards());
+        assertEquals(false, header.requestCache());
+    }
+
+    @Test
+    void testMultisearchHeaderDefaults() {
+        var request = new SearchRequest.Builder()
+                .index("test")
+                .query(q -> q.matchAll(m -> m))
+                .build();
+
+        var header = OpenSearchUtil.toMultisearchHeader(request);
+
+        assertEquals(List.of("test"), header.index());
+        assertNull(header.routing());
+        assertNull(header.requestCache());
+        assertTrue(header.expandWildcards().isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package fi.vm.yti.common.opensearch;
+
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.opensearch.core.SearchRequest;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SearchResultCacheTest {
+
+    private static final SearchRequest REQUEST = new SearchRequest.Builder()
+            .index("test")
+            .query(q -> q.matchAll(m -> m))
+            .build();
+
+    @Test
+    void testWriteChangesKey() {
+        var cache = new SearchResultCache(10, 60, 60000);
+        var key = cache.key(REQUEST, IndexBase.class);
+
+        cache.invalidate("test");
+
+        assertNotNull(key);
+        assertNotEquals(key, cache.key(REQUEST, IndexBase.class));
+    }
+
+    @Test
+    void testNotCachedBeforeRefresh() throws Exception {
+        var cache = new SearchResultCache(10, 60, 50);
+
+        cache.invalidate("test", false);
+        assertNull(cache.key(REQUEST, IndexBase.class));
+
+        Thread.sleep(100);
+        assertNotNull(cache.key(REQUEST, IndexBase.class));
+    }
+
+    @Test
+    void testAllIndexesNotCached() {
+        var cache = new SearchResultCache(10, 60, 50);
+        var request = new SearchRequest.Builder()
+                .query(q -> q.matchAll(m -> m))
+                .build();
+
+        assertNull(cache.key(request, IndexBase.class));
+    }
+
+    @Test
+    void testIndexPatternsNotCached() {
+        var cache = new SearchResultCache(10, 60, 50);
+        var wildcard = new SearchRequest.Builder()
+                .index("test_*")
+                .query(q -> q.matchAll(m -> m))
+                .build();
+        var commaSeparated = new SearchRequest.Builder()
+                .index("test,other")
+                .query(q -> q.matchAll(m -> m))
+                .build();
+
+        assertNull(cache.key(wildcard, IndexBase.class));
+        assertNull(cache.key(commaSeparated, IndexBase.class));
+    }
+}
@@ -0,0 +1,228 @@
+package fi.vm.yti.common.repository;
+
+import fi.vm.yti.common.util.GraphURI;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.SKOS;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static fi.vm.yti.common.repository.LocalFuseki.syntheticGraph;
+import static fi.vm.yti.common.repository.LocalFuseki.syntheticGraphURI;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BaseRepositoryTest {
+
+    private static final int RESOURCES = 50;
+
+    private LocalFuseki fuseki;
+    private LocalFuseki.LocalRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        fuseki = new LocalFuseki();
+        fuseki.loadSyntheticGraphs(3, RESOURCES);
+        repository = fuseki.repository();
+    }
+
+    @Test
+    void testFetchAndFetchAll() {
+        var graph = syntheticGraphURI(0);
+        assertTrue(repository.fetch(graph).isIsomorphicWith(syntheticGraph(graph, RESOURCES)));
+
+        var dataset = repository.fetchAll(List.of(syntheticGraphURI(1), syntheticGraphURI(2), "http://uri.suomi.fi/test/missing/"));
+        assertTrue(dataset.containsNamedModel(syntheticGraphURI(1)));
+        assertTrue(dataset.containsNamedModel(syntheticGraphURI(2)));
+        assertFalse(dataset.containsNamedModel("http://uri.suomi.fi/test/missing/"));
+    }
+
+    @Test
+    void testPutAllAndPutDelta() {
+        var graph = syntheticGraphURI(0);
+        var base = repository.fetch(graph);
+        var model = ModelFactory.createDefaultModel().add(base);
+        model.removeAll(model.getResource(graph + "R1"), RDFS.label, null);
+        model.getResource(graph + "R1").addProperty(RDFS.label, "Muutettu", "fi");
+
+        repository.putDelta(graph, base, model);
+        assertTrue(repository.fetch(graph).isIsomorphicWith(model));
+
+        var newGraph = "http://uri.suomi.fi/test/new/";
+        repository.putAll(Map.of(newGraph, syntheticGraph(newGraph, 5), graph, base));
+        assertTrue(repository.fetch(newGraph).isIsomorphicWith(syntheticGraph(newGraph, 5)));
+        assertTrue(repository.fetch(graph).isIsomorphicWith(base));
+    }
+
+    @Test
+    void testDeleteResources() {
+        var graph = syntheticGraphURI(0);
+        repository.deleteResource(graph + "R1");
+        var uri = new GraphURI() {
+            @Override
+            public String getGraphURI() {
+                return graph;
+            }
+
+            @Override
+            public String getModelResourceURI() {
+                return graph;
+            }
+        };
+        uri.createResourceURI("g0", "R2", null);
+        repository.deleteResources(List.of(uri));
+
+        var model = repository.fetch(graph);
+        for (var deleted : List.of(graph + "R1", graph + "R2")) {
+            var resource = model.getResource(deleted);
+            assertFalse(model.contains(resource, null));
+            assertFalse(model.contains(null, null, resource));
+        }
+        assertTrue(model.contains(model.getResource(graph + "R4"), SKOS.related, model.getResource(graph + "R3")));
+    }
+
+    @Test
+    void testResourceExistsIgnoringCase() {
+        repository.enableIdentifierCache(Duration.ofMinutes(10));
+        var graph = syntheticGraphURI(0);
+        assertTrue(repository.resourceExistsInGraph(graph, graph + "r10", false));
+        assertFalse(repository.resourceExistsInGraph(graph, graph + "r10", true));
+        assertFalse(repository.resourceExistsInGraph(graph, graph + "new", false));
+
+        var model = repository.fetch(graph);
+        model.createResource(graph + "New").addProperty(DCTerms.identifier, "New");
+        repository.put(graph, model);
+
+        assertTrue(repository.resourceExistsInGraph(graph, graph + "new", false));
+    }
+
+    @Test
+    void testGraphChangedDuringIdentifierLoad() {
+        var graph = syntheticGraphURI(0);
+        var changed = new AtomicBoolean();
+        var repository = new BaseRepository(fuseki.connect(), fuseki.connect(), fuseki.connect(), fuseki.connect()) {
+            @Override
+            public void querySelect(Query query, Consumer<QuerySolution> consumer) {
+                super.querySelect(query, consumer);
+                // another writer changes the graph after the identifiers were read
+                if (changed.compareAndSet(false, true)) {
+                    var model = ModelFactory.createDefaultModel();
+                    model.createResource(graph + "New").addProperty(DCTerms.identifier, "New");
+                    var dataset = fuseki.getDataset();
+                    dataset.executeWrite(() -> dataset.getNamedModel(graph).add(model));
+                    graphChanged(graph);
+                }
+            }
+        };
+        repository.enableIdentifierCache(Duration.ofMinutes(10));
+
+        assertTrue(repository.resourceExistsInGraph(graph, graph + "new", false));
+        assertTrue(repository.resourceExistsInGraph(graph, graph + "r10", false));
+    }
+
+    @Test
+    void testIdentifierCacheDisabledByDefault() {
+        var graph = syntheticGraphURI(0);
+        assertFalse(repository.resourceExistsInGraph(graph, graph + "new", false));
+
+        // another process adds the identifier
+        var dataset = fuseki.getDataset();
+        dataset.executeWrite(() -> dataset.getNamedModel(graph)
+                .createResource(graph + "New")
+                .addProperty(DCTerms.identifier, "New"));
+
+        assertTrue(repository.resourceExistsInGraph(graph, graph + "new", false));
+    }
+
+    @Test
+    void testGraphExistsCache() {
+        repository.enableGraphExistsCache(Duration.ofMinutes(10));
+        var newGraph = "http://uri.suomi.fi/test/new/";
+
+        assertTrue(repository.graphExists(syntheticGraphURI(0)));
+        assertFalse(repository.graphExists(newGraph));
+
+        repository.put(newGraph, syntheticGraph(newGraph, 1));
+        assertTrue(repository.graphExists(newGraph));
+
+        repository.delete(newGraph);
+        assertFalse(repository.graphExists(newGraph));
+    }
+
+    @Test
+    void testGraphCreatedDuringGraphListLoad() {
+        var newGraph = "http://uri.suomi.fi/test/new/";
+        var created = new AtomicBoolean();
+        var repository = new BaseRepository(fuseki.connect(), fuseki.connect(), fuseki.connect(), fuseki.connect()) {
+            @Override
+            public void querySelect(Query query, Consumer<QuerySolution> consumer) {
+                super.querySelect(query, consumer);
+                // another thread creates a graph after the graph list was read
+                if (created.compareAndSet(false, true)) {
+                    put(newGraph, syntheticGraph(newGraph, 1));
+                }
+            }
+        };
+        repository.enableGraphExistsCache(Duration.ofMinutes(10));
+
+        assertTrue(repository.graphExists(newGraph));
+        assertTrue(repository.graphExists(newGraph));
+    }
+
+    @Test
+    void testAllGraphsChangedDuringGraphListLoad() {
+        var invalidated = new AtomicBoolean();
+        var repository = new BaseRepository(fuseki.connect(), fuseki.connect(), fuseki.connect(), fuseki.connect()) {
+            @Override
+            public void querySelect(Query query, Consumer<QuerySolution> consumer) {
+                super.querySelect(query, consumer);
+                if (invalidated.compareAndSet(false, true)) {
+                    allGraphsChanged();
+                }
+            }
+        };
+        repository.enableGraphExistsCache(Duration.ofMinutes(10));
+
+        assertTrue(repository.graphExists(syntheticGraphURI(0)));
+        assertFalse(repository.graphExists("http://uri.suomi.fi/test/missing/"));
+    }
+
+    @Test
+    void testGraphsModifiedSince() {
+        var graph = syntheticGraphURI(1);
+        var model = repository.fetch(graph);
+        model.getResource(graph + "R3")
+                .removeAll(DCTerms.modified)
+                .addLiteral(DCTerms.modified, model.createTypedLiteral(Calendar.getInstance()));
+        repository.put(graph, model);
+
+        var graphs = repository.getGraphsModifiedSince(Instant.now().minus(Duration.ofHours(1)));
+        assertEquals(Set.of(graph), graphs);
+    }
+
+    @Test
+    void testEndpointGuards() {
+        repository.enableEndpointGuards(new FusekiEndpointGuard.Settings());
+
+        assertTrue(repository.graphExists(syntheticGraphURI(0)));
+        repository.fetch(syntheticGraphURI(0));
+
+        var calls = repository.getEndpointGuards().stream()
+                .mapToLong(guard -> guard.getMetrics().getCalls())
+                .sum();
+        assertEquals(2, calls);
+    }
+}
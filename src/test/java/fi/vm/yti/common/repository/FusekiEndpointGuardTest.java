@@ -0,0 +1,222 @@
+package fi.vm.yti.common.repository;
+
+import com.sun.net.httpserver.HttpServer;
+import fi.vm.yti.common.exception.JenaQueryException;
+import org.apache.jena.atlas.web.HttpException;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FusekiEndpointGuardTest {
+
+    private static final String ASK_RESULT = "{\"head\": {}, \"boolean\": true}";
+
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testRunsOnCallingThread() {
+        var guard = new FusekiEndpointGuard("test", new FusekiEndpointGuard.Settings());
+        var caller = Thread.currentThread();
+
+        assertSame(caller, guard.call(Thread::currentThread, true));
+    }
+
+    @Test
+    void testRetryIdempotentOnly() {
+        var settings = new FusekiEndpointGuard.Settings();
+        settings.setRetryBackoffMillis(1);
+        var guard = new FusekiEndpointGuard("test", settings);
+        var attempts = new AtomicInteger();
+
+        assertEquals("ok", guard.call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new HttpException(503, "Service Unavailable", null);
+            }
+            return "ok";
+        }, true));
+        assertEquals(3, attempts.get());
+        assertEquals(2, guard.getMetrics().getRetries());
+
+        attempts.set(0);
+        assertThrows(HttpException.class, () -> guard.run(() -> {
+            attempts.incrementAndGet();
+            throw new HttpException(503, "Service Unavailable", null);
+        }, false));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void testCircuitOpensAfterFailures() {
+        var settings = new FusekiEndpointGuard.Settings();
+        settings.setFailureThreshold(2);
+        settings.setMaxRetries(0);
+        settings.setOpenMillis(60000);
+        var guard = new FusekiEndpointGuard("test", settings);
+
+        // client errors do not count as failures
+        for (int i = 0; i < 3; i++) {
+            assertThrows(HttpException.class, () -> guard.call(() -> {
+                throw new HttpException(404, "Not Found", null);
+            }, true));
+        }
+        assertFalse(guard.isOpen());
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(HttpException.class, () -> guard.call(() -> {
+                throw new HttpException(500, "Server Error", null);
+            }, true));
+        }
+        assertTrue(guard.isOpen());
+        assertThrows(JenaQueryException.class, () -> guard.call(() -> "ok", true));
+        assertEquals(1, guard.getMetrics().getCircuitRejections());
+    }
+
+    @Test
+    void testSlowCallsCountAsFailures() {
+        var settings = new FusekiEndpointGuard.Settings();
+        settings.setTimeoutMillis(1);
+        settings.setFailureThreshold(1);
+        var guard = new FusekiEndpointGuard("test", settings);
+
+        guard.run(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, false);
+
+        assertEquals(1, guard.getMetrics().getSlowCalls());
+        assertTrue(guard.isOpen());
+    }
+
+    @Test
+    void testRetryServerErrorFromQuery() throws Exception {
+        var statuses = startServer(503, 200);
+        var settings = new FusekiEndpointGuard.Settings();
+        settings.setRetryBackoffMillis(1);
+        var repository = repository(settings);
+
+        assertTrue(repository.queryAsk(QueryFactory.create("ASK { ?s ?p ?o }")));
+        assertTrue(statuses.isEmpty());
+        assertEquals(1, sparqlGuard(repository).getMetrics().getRetries());
+    }
+
+    @Test
+    void testBadQueryDoesNotOpenCircuit() throws Exception {
+        startServer(400, 400, 400);
+        var settings = new FusekiEndpointGuard.Settings();
+        settings.setFailureThreshold(2);
+        var repository = repository(settings);
+
+        for (int i = 0; i < 3; i++) {
+            var e = assertThrows(QueryExceptionHTTP.class,
+                    () -> repository.queryAsk(QueryFactory.create("ASK { ?s ?p ?o }")));
+            assertEquals(400, e.getStatusCode());
+        }
+        var guard = sparqlGuard(repository);
+        assertFalse(guard.isOpen());
+        assertEquals(0, guard.getMetrics().getFailures());
+        assertEquals(0, guard.getMetrics().getRetries());
+    }
+
+    @Test
+    void testHungGraphStoreOpensCircuit() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/core/data", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        var settings = new FusekiEndpointGuard.Settings();
+        settings.setTimeoutMillis(100);
+        settings.setFailureThreshold(1);
+        settings.setMaxRetries(0);
+        var httpClient = new TimeoutHttpClient(HttpClient.newHttpClient());
+        httpClient.setRequestTimeout(Duration.ofMillis(settings.getTimeoutMillis()));
+        var connection = FusekiConnectionFactory.connect(
+                "http://localhost:" + server.getAddress().getPort() + "/core/data",
+                FusekiConnectionFactory.WireFormat.TEXT, httpClient);
+        var repository = new BaseRepository(connection, connection, connection, connection) {
+        };
+        repository.enableEndpointGuards(settings);
+
+        var start = System.nanoTime();
+        assertThrows(HttpException.class, () -> repository.put("urn:graph", ModelFactory.createDefaultModel()));
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(1).toNanos());
+
+        var guard = repository.getEndpointGuards().stream()
+                .filter(g -> g.getName().equals("data"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(1, guard.getMetrics().getFailures());
+        assertTrue(guard.isOpen());
+    }
+
+    /**
+     * Start SPARQL endpoint responding with the given statuses in order, ASK result for 200
+     */
+    private Queue<Integer> startServer(Integer... statuses) throws IOException {
+        var queue = new ConcurrentLinkedQueue<>(List.of(statuses));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/core/sparql", exchange -> {
+            var status = queue.poll();
+            var body = (status != null && status == 200 ? ASK_RESULT : "error").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/sparql-results+json");
+            exchange.sendResponseHeaders(status != null ? status : 500, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        return queue;
+    }
+
+    private BaseRepository repository(FusekiEndpointGuard.Settings settings) {
+        var connection = RDFConnection.connect("http://localhost:" + server.getAddress().getPort() + "/core/sparql");
+        var repository = new BaseRepository(connection, connection, connection, connection) {
+        };
+        repository.enableEndpointGuards(settings);
+        return repository;
+    }
+
+    private static FusekiEndpointGuard sparqlGuard(BaseRepository repository) {
+        return repository.getEndpointGuards().stream()
+                .filter(guard -> guard.getName().equals("sparql"))
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,100 @@
+package fi.vm.yti.common.repository;
+
+import fi.vm.yti.common.properties.SuomiMeta;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdfconnection.Isolation;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.SKOS;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * In-memory stand-in for the Fuseki core dataset. Connections corresponding to
+ * /core/get, /core/data, /core/sparql and /core/update all use the same transactional dataset.
+ * Models are copied in and out like over HTTP, so repositories behave the same way as with a real server.
+ */
+public class LocalFuseki {
+
+    private final Dataset dataset = DatasetFactory.createTxnMem();
+
+    public RDFConnection connect() {
+        return RDFConnection.connect(dataset, Isolation.COPY);
+    }
+
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    public LocalRepository repository() {
+        return new LocalRepository(this);
+    }
+
+    public void load(String graph, Model model) {
+        dataset.executeWrite(() -> dataset.addNamedModel(graph, model));
+    }
+
+    /**
+     * Load synthetic graphs http://uri.suomi.fi/test/g{i}/
+     *
+     * @param graphs number of graphs
+     * @param resources number of resources per graph
+     */
+    public void loadSyntheticGraphs(int graphs, int resources) {
+        for (int i = 0; i < graphs; i++) {
+            load(syntheticGraphURI(i), syntheticGraph(syntheticGraphURI(i), resources));
+        }
+    }
+
+    public static String syntheticGraphURI(int index) {
+        return "http://uri.suomi.fi/test/g" + index + "/";
+    }
+
+    /**
+     * Create graph with the given number of SKOS concepts. Each concept has an identifier R{i},
+     * a label in three languages, modification times and a reference to the previous concept.
+     *
+     * @param graph graph URI, used as namespace of the resources
+     * @param resources number of resources
+     * @return model
+     */
+    public static Model syntheticGraph(String graph, int resources) {
+        var model = ModelFactory.createDefaultModel();
+        var modified = new GregorianCalendar(2024, Calendar.JANUARY, 1);
+        modified.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        model.createResource(graph)
+                .addProperty(RDF.type, SKOS.ConceptScheme)
+                .addProperty(RDFS.label, "Graph " + graph, "fi")
+                .addLiteral(DCTerms.modified, model.createTypedLiteral(modified));
+
+        for (int i = 0; i < resources; i++) {
+            var resource = model.createResource(graph + "R" + i)
+                    .addProperty(RDF.type, SKOS.Concept)
+                    .addProperty(SKOS.inScheme, model.getResource(graph))
+                    .addProperty(DCTerms.identifier, "R" + i)
+                    .addProperty(RDFS.label, "Käsite " + i, "fi")
+                    .addProperty(RDFS.label, "Begrepp " + i, "sv")
+                    .addProperty(RDFS.label, "Concept " + i, "en")
+                    .addLiteral(SuomiMeta.contentModified, model.createTypedLiteral(modified));
+            if (i > 0) {
+                resource.addProperty(SKOS.related, model.getResource(graph + "R" + (i - 1)));
+            }
+        }
+        return model;
+    }
+
+    public static class LocalRepository extends BaseRepository {
+
+        LocalRepository(LocalFuseki fuseki) {
+            super(fuseki.connect(), fuseki.connect(), fuseki.connect(), fuseki.connect());
+        }
+    }
+}
@@ -7,12 +7,19 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
@@ -70,4 +77,40 @@ class FrontendServiceTest {
 
         assertEquals(List.of("Consumer matters", "Industries", "Tourism"), names);
     }
+
+    @Test
+    void testOrganizationsSnapshot() {
+        var model = TestUtils.getModelFromFile("/organizations.ttl");
+
+        when(coreRepository.getOrganizations()).thenReturn(model);
+
+        var organizations = service.getOrganizations("en", true);
+        assertSame(organizations, service.getOrganizations("en", true));
+        assertThrows(UnsupportedOperationException.class, () -> organizations.remove(0));
+
+        // new model from the repository cache rebuilds the snapshot
+        when(coreRepository.getOrganizations()).thenReturn(TestUtils.getModelFromFile("/organizations.ttl"));
+        var refreshed = service.getOrganizations("en", true);
+        assertNotSame(organizations, refreshed);
+        assertEquals(organizations.size(), refreshed.size());
+    }
+
+    @Test
+    void testServiceCategoriesJson() {
+        var model = TestUtils.getModelFromFile("/service-categories.ttl");
+
+        when(coreRepository.getServiceCategories()).thenReturn(model);
+
+        var json = service.getServiceCategoriesJson("en");
+        assertSame(json, service.getServiceCategoriesJson("en"));
+        assertTrue(new String(json.getBody(), StandardCharsets.UTF_8).indexOf("Consumer matters")
+                < new String(json.getBody(), StandardCharsets.UTF_8).indexOf("Tourism"));
+
+        assertEquals(HttpStatus.OK, json.toResponseEntity(null).getStatusCode());
+        assertEquals(HttpStatus.OK, json.toResponseEntity("\"other\"").getStatusCode());
+
+        var notModified = json.toResponseEntity("W/" + json.getEtag());
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+    }
 }
@@ -126,4 +126,101 @@ class GroupManagementServiceTest {
 
         assertEquals(Set.of(orgId, parentId), groupManagementService.getOrganizationsForUser(user));
     }
+
+    @Test
+    void testGetDescendantOrganizations() {
+        var rootId = UUID.randomUUID();
+        var childId = UUID.randomUUID();
+        var grandChildId = UUID.randomUUID();
+
+        var model = ModelFactory.createDefaultModel();
+        model.createResource(Constants.URN_UUID + rootId)
+                .addProperty(SuomiMeta.parentOrganization, "");
+        model.createResource(Constants.URN_UUID + childId)
+                .addProperty(SuomiMeta.parentOrganization, Constants.URN_UUID + rootId);
+        model.createResource(Constants.URN_UUID + grandChildId)
+                .addProperty(SuomiMeta.parentOrganization, Constants.URN_UUID + childId);
+
+        when(coreRepository.getOrganizations()).thenReturn(model);
+
+        assertEquals(Set.of(childId, grandChildId), groupManagementService.getDescendantOrganizations(rootId));
+        assertEquals(Set.of(grandChildId), groupManagementService.getDescendantOrganizations(childId));
+        assertEquals(List.of(childId), groupManagementService.getOrganizationHierarchy().getChildren(rootId));
+        assertEquals(List.of(), groupManagementService.getChildOrganizations(rootId));
+        assertEquals(List.of(), groupManagementService.getChildOrganizations(UUID.randomUUID()));
+    }
+
+    @Test
+    void testOrganizationTreeDirection() {
+        var rootId = UUID.randomUUID();
+        var childId = UUID.randomUUID();
+
+        var model = ModelFactory.createDefaultModel();
+        model.createResource(Constants.URN_UUID + rootId)
+                .addProperty(SuomiMeta.parentOrganization, "");
+        model.createResource(Constants.URN_UUID + childId)
+                .addProperty(SuomiMeta.parentOrganization, Constants.URN_UUID + rootId);
+
+        when(coreRepository.getOrganizations()).thenReturn(model);
+
+        // parentOrganization points up, descendants are found by walking down
+        assertEquals(List.of(rootId), groupManagementService.getParentOrganizations(childId));
+        assertEquals(List.of(), groupManagementService.getParentOrganizations(rootId));
+        assertEquals(Set.of(childId), groupManagementService.getDescendantOrganizations(rootId));
+        assertEquals(Set.of(), groupManagementService.getDescendantOrganizations(childId));
+
+        // getChildOrganizations keeps the baseline behavior
+        assertEquals(groupManagementService.getParentOrganizations(childId),
+                groupManagementService.getChildOrganizations(childId));
+    }
+
+    @Test
+    void testOrganizationsForUserCached() {
+        var orgId = UUID.randomUUID();
+        var otherOrgId = UUID.randomUUID();
+
+        var model = ModelFactory.createDefaultModel();
+        model.createResource(Constants.URN_UUID + orgId).addProperty(SuomiMeta.parentOrganization, "");
+        model.createResource(Constants.URN_UUID + otherOrgId).addProperty(SuomiMeta.parentOrganization, "");
+
+        when(coreRepository.getOrganizations()).thenReturn(model);
+
+        var userId = UUID.randomUUID();
+        var roles = new HashMap<UUID, Set<Role>>(Map.of(orgId, Set.of(Role.DATA_MODEL_EDITOR)));
+        var user = createUser(userId, roles);
+
+        var result = groupManagementService.getOrganizationsForUser(user);
+        assertEquals(Set.of(orgId), result);
+
+        // returned sets are copies of the cached result
+        result.add(otherOrgId);
+        assertEquals(Set.of(orgId), groupManagementService.getOrganizationsForUser(createUser(userId, roles)));
+
+        // changed organizations are not served from the cache
+        roles.put(otherOrgId, Set.of(Role.DATA_MODEL_EDITOR));
+        assertEquals(Set.of(orgId, otherOrgId), groupManagementService.getOrganizationsForUser(createUser(userId, roles)));
+
+        // changed roles in the same organizations give the same result
+        roles.put(otherOrgId, Set.of(Role.ADMIN));
+        assertEquals(Set.of(orgId, otherOrgId), groupManagementService.getOrganizationsForUser(createUser(userId, roles)));
+
+        // user sync clears cached results
+        TestUtils.mockWebClient(client, List.of(new GroupManagementUserDTO(userId, "test@localhost", "Test", "User", null)));
+        groupManagementService.initUsers();
+        assertEquals(Set.of(orgId), groupManagementService.getOrganizationsForUser(createUser(userId, Map.of(orgId, Set.of(Role.DATA_MODEL_EDITOR)))));
+    }
+
+    private static YtiUser createUser(UUID id, Map<UUID, Set<Role>> roles) {
+        return new YtiUser("test@localhost",
+                "test",
+                "tester",
+                id,
+                false,
+                false,
+                LocalDateTime.of(2001, 1, 1, 0,0),
+                LocalDateTime.of(2001, 1, 1, 0,0),
+                new HashMap<>(roles),
+                "",
+                "");
+    }
 }